@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the throughput of extracting a library from a natives jar with
+ * {@link SharedLibraryLoader#extractFileTo(String, File)} against the
+ * original extraction, which read the entry once through a 4KB buffer to
+ * compute its CRC and again to copy it.<br />
+ * <br />
+ * Usage: <code>ExtractionBenchmark [megabytes] [runs]</code><br />
+ * <br />
+ * A jar holding a stored and a deflated entry of the given size, 64MB by
+ * default, is written to a temporary directory. Each entry is extracted to
+ * an empty directory the given number of times, 5 by default, after a
+ * warm-up and the best time of each method is reported.
+ */
+public class ExtractionBenchmark {
+	private static final String STORED_ENTRY = "bench/stored.bin";
+	private static final String DEFLATED_ENTRY = "bench/deflated.bin";
+
+	public static void main(String[] args) throws Exception {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		File workDir = File.createTempFile("natives-loader-benchmark", "");
+		workDir.delete();
+		workDir.mkdirs();
+		try {
+			File jar = new File(workDir, "natives.jar");
+			long bytes = megabytes * 1024L * 1024L;
+			writeJar(jar, bytes);
+			System.out.println("Extracting " + megabytes + "MB, best of " + runs + " runs, Java "
+					+ System.getProperty("java.version"));
+			for (String entry : new String[] { STORED_ENTRY, DEFLATED_ENTRY }) {
+				long originalNanos = benchmark(jar, entry, workDir, runs, true);
+				long currentNanos = benchmark(jar, entry, workDir, runs, false);
+				System.out.println(entry + ": 4KB loop " + throughput(bytes, originalNanos) + " MB/s, extractFileTo "
+						+ throughput(bytes, currentNanos) + " MB/s");
+			}
+		} finally {
+			deleteRecursively(workDir);
+		}
+	}
+
+	/**
+	 * @return The fastest time to extract the entry in nanoseconds
+	 */
+	private static long benchmark(File jar, String entry, File workDir, int runs, boolean original)
+			throws IOException {
+		SharedLibraryLoader loader = new SharedLibraryLoader(jar.getAbsolutePath());
+		long best = Long.MAX_VALUE;
+		for (int run = -1; run < runs; run++) {
+			File outputDir = new File(workDir, "out");
+			deleteRecursively(outputDir);
+			outputDir.mkdirs();
+			long startTime = System.nanoTime();
+			if (original) {
+				extractOriginal(jar, entry, new File(outputDir, new File(entry).getName()));
+			} else {
+				loader.extractFileTo(entry, outputDir);
+			}
+			long elapsed = System.nanoTime() - startTime;
+			// The first run warms up the JIT
+			if (run >= 0)
+				best = Math.min(best, elapsed);
+		}
+		return best;
+	}
+
+	/**
+	 * The extraction of the original release: a CRC pass and a copy pass,
+	 * each opening the jar and moving data through a fresh 4KB buffer
+	 */
+	private static void extractOriginal(File jar, String entry, File extractedFile) throws IOException {
+		CRC32 crc = new CRC32();
+		ZipFile zipFile = new ZipFile(jar);
+		try {
+			InputStream input = zipFile.getInputStream(zipFile.getEntry(entry));
+			byte[] buffer = new byte[4096];
+			while (true) {
+				int length = input.read(buffer);
+				if (length == -1)
+					break;
+				crc.update(buffer, 0, length);
+			}
+			input.close();
+		} finally {
+			zipFile.close();
+		}
+
+		zipFile = new ZipFile(jar);
+		try {
+			InputStream input = zipFile.getInputStream(zipFile.getEntry(entry));
+			FileOutputStream output = new FileOutputStream(extractedFile);
+			byte[] buffer = new byte[4096];
+			while (true) {
+				int length = input.read(buffer);
+				if (length == -1)
+					break;
+				output.write(buffer, 0, length);
+			}
+			input.close();
+			output.close();
+		} finally {
+			zipFile.close();
+		}
+	}
+
+	/**
+	 * Writes a jar with a stored and a deflated entry. Half of each block is
+	 * random so that the deflated entry compresses about as well as a native
+	 * library.
+	 */
+	private static void writeJar(File jar, long bytes) throws IOException {
+		byte[] data = new byte[(int) bytes];
+		Random random = new Random(0L);
+		byte[] block = new byte[512];
+		for (int offset = 0; offset < data.length; offset += block.length * 2) {
+			random.nextBytes(block);
+			System.arraycopy(block, 0, data, offset, Math.min(block.length, data.length - offset));
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+
+		ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar));
+		try {
+			ZipEntry stored = new ZipEntry(STORED_ENTRY);
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(data.length);
+			stored.setCompressedSize(data.length);
+			stored.setCrc(crc.getValue());
+			output.putNextEntry(stored);
+			output.write(data);
+			output.closeEntry();
+
+			output.putNextEntry(new ZipEntry(DEFLATED_ENTRY));
+			output.write(data);
+			output.closeEntry();
+		} finally {
+			output.close();
+		}
+	}
+
+	private static long throughput(long bytes, long nanos) {
+		return bytes * 1000000000L / nanos / (1024L * 1024L);
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of large reusable buffers for extracting and checksumming
+ * libraries. Buffers are heap backed since {@link java.util.zip.Checksum}
+ * only accepts arrays on Java 7, and are written through a
+ * {@link java.nio.channels.FileChannel} which reuses its own per-thread
+ * direct buffer.
+ */
+class BufferPool {
+	static final int BUFFER_SIZE = 256 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 4;
+
+	private static final Queue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+	/**
+	 * Returns a cleared buffer of {@link #BUFFER_SIZE} bytes. Return it with
+	 * {@link #release(ByteBuffer)} when finished.
+	 */
+	static ByteBuffer obtain() {
+		ByteBuffer buffer = BUFFERS.poll();
+		if (buffer == null)
+			return ByteBuffer.allocate(BUFFER_SIZE);
+		POOLED_BUFFERS.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	static void release(ByteBuffer buffer) {
+		if (POOLED_BUFFERS.incrementAndGet() > MAX_POOLED_BUFFERS) {
+			POOLED_BUFFERS.decrementAndGet();
+			return;
+		}
+		BUFFERS.offer(buffer);
+	}
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+/**
+ * Where the checksum of a library reported to
+ * {@link NativeLoadListener#onChecksum(String, ChecksumSource, ChecksumStrategy)}
+ * came from
+ */
+public enum ChecksumSource {
+	/**
+	 * The checksum was read from the {@link NativesIndex} of the natives jar
+	 */
+	INDEX,
+	/**
+	 * The CRC-32 was read from the zip central directory
+	 */
+	ZIP_METADATA,
+	/**
+	 * The library in the jar was read in full
+	 */
+	STREAMED,
+	/**
+	 * A previously extracted file was read in full
+	 */
+	EXTRACTED_FILE
+}
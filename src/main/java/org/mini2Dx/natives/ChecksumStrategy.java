@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/**
+ * Computes the checksums {@link SharedLibraryLoader} uses to name extraction
+ * directories and to verify extracted files. Select one with
+ * {@link SharedLibraryLoader#setChecksumStrategy(ChecksumStrategy)} or the
+ * <code>mini2Dx.natives.checksum</code> system property.
+ */
+public abstract class ChecksumStrategy {
+	/**
+	 * CRC-32, the default. Source checksums are read from the zip central
+	 * directory without reading the library.
+	 */
+	public static final ChecksumStrategy CRC32 = new ChecksumStrategy("crc32") {
+		@Override
+		public Hasher newHasher() {
+			return new ChecksumHasher(new java.util.zip.CRC32());
+		}
+	};
+	/**
+	 * CRC-32C, which is hardware accelerated on Java 9 and above. Not
+	 * available on earlier versions.
+	 */
+	public static final ChecksumStrategy CRC32C = new ChecksumStrategy("crc32c") {
+		@Override
+		public Hasher newHasher() {
+			try {
+				return new ChecksumHasher((Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance());
+			} catch (Exception ex) {
+				throw new UnsupportedOperationException("CRC32C requires Java 9 or above", ex);
+			}
+		}
+	};
+	/**
+	 * xxHash64, a fast non-cryptographic 64-bit hash
+	 */
+	public static final ChecksumStrategy XXHASH64 = new ChecksumStrategy("xxhash64") {
+		@Override
+		public Hasher newHasher() {
+			return new XxHash64();
+		}
+	};
+	/**
+	 * SHA-256, for deployments that require a cryptographic integrity check
+	 */
+	public static final ChecksumStrategy SHA256 = new ChecksumStrategy("sha256") {
+		@Override
+		public Hasher newHasher() {
+			try {
+				return new DigestHasher(MessageDigest.getInstance("SHA-256"));
+			} catch (NoSuchAlgorithmException ex) {
+				throw new UnsupportedOperationException("SHA-256 is not available", ex);
+			}
+		}
+	};
+
+	private static final ChecksumStrategy[] BUILT_IN = new ChecksumStrategy[] { CRC32, CRC32C, XXHASH64, SHA256 };
+
+	private final String name;
+
+	protected ChecksumStrategy(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Creates a new {@link Hasher} to checksum a library
+	 */
+	public abstract Hasher newHasher();
+
+	/**
+	 * @return False if this strategy is not supported by the running JVM,
+	 *         e.g. {@link #CRC32C} before Java 9
+	 */
+	public boolean isAvailable() {
+		try {
+			newHasher();
+			return true;
+		} catch (UnsupportedOperationException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the name of the extraction directory for a checksum. CRC-32
+	 * uses the bare checksum to match earlier releases, other strategies
+	 * prefix it with their name.
+	 */
+	public String getDirectoryName(String checksum) {
+		if (this == CRC32)
+			return checksum;
+		return name + "-" + checksum;
+	}
+
+	/**
+	 * @return The name of this strategy, e.g. crc32
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Returns the built-in strategy with the given name, ignoring case
+	 * 
+	 * @return {@link #CRC32} if the name is null, unrecognised or not
+	 *         available on this JVM
+	 */
+	static ChecksumStrategy fromProperty(String value) {
+		ChecksumStrategy strategy = forName(value);
+		return strategy != null && strategy.isAvailable() ? strategy : CRC32;
+	}
+
+	/**
+	 * Returns the built-in strategy with the given name, ignoring case
+	 * 
+	 * @return null if the name is null or not a built-in strategy
+	 */
+	static ChecksumStrategy forName(String name) {
+		for (ChecksumStrategy strategy : BUILT_IN) {
+			if (strategy.name.equalsIgnoreCase(name))
+				return strategy;
+		}
+		return null;
+	}
+
+	/**
+	 * Computes a checksum incrementally
+	 */
+	public interface Hasher {
+		void update(byte[] bytes, int offset, int length);
+
+		/**
+		 * @return The checksum of all bytes passed to
+		 *         {@link #update(byte[], int, int)} as a lowercase hex
+		 *         string
+		 */
+		String getValue();
+	}
+
+	private static class ChecksumHasher implements Hasher {
+		private final Checksum checksum;
+
+		ChecksumHasher(Checksum checksum) {
+			this.checksum = checksum;
+		}
+
+		@Override
+		public void update(byte[] bytes, int offset, int length) {
+			checksum.update(bytes, offset, length);
+		}
+
+		@Override
+		public String getValue() {
+			return Long.toString(checksum.getValue(), 16);
+		}
+	}
+
+	private static class DigestHasher implements Hasher {
+		private final MessageDigest digest;
+
+		DigestHasher(MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		@Override
+		public void update(byte[] bytes, int offset, int length) {
+			digest.update(bytes, offset, length);
+		}
+
+		@Override
+		public String getValue() {
+			StringBuilder result = new StringBuilder();
+			for (byte b : digest.digest()) {
+				result.append(Character.forDigit((b >> 4) & 0xF, 16));
+				result.append(Character.forDigit(b & 0xF, 16));
+			}
+			return result.toString();
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the header and dynamic section of an ELF shared library to list the
+ * libraries it depends on (DT_NEEDED) and its SONAME without loading it, and
+ * checks the header matches the JVM before the library is extracted
+ */
+class ElfFile {
+	/**
+	 * The number of bytes of the header needed by
+	 * {@link #getIncompatibility(byte[], int)}
+	 */
+	static final int HEADER_SIZE = 52;
+
+	private static final int ELFCLASS32 = 1;
+	private static final int ELFCLASS64 = 2;
+	private static final int ELFDATA2LSB = 1;
+	private static final int ELFDATA2MSB = 2;
+	private static final int ELFOSABI_SYSV = 0;
+	private static final int ELFOSABI_GNU = 3;
+	private static final int EM_386 = 3;
+	private static final int EM_PPC64 = 21;
+	private static final int EM_S390 = 22;
+	private static final int EM_ARM = 40;
+	private static final int EM_X86_64 = 62;
+	private static final int EM_AARCH64 = 183;
+	private static final int EM_RISCV = 243;
+	private static final int EF_ARM_ABI_FLOAT_SOFT = 0x200;
+	private static final int EF_ARM_ABI_FLOAT_HARD = 0x400;
+	private static final int PT_LOAD = 1;
+	private static final int PT_DYNAMIC = 2;
+	private static final long DT_NULL = 0L;
+	private static final long DT_NEEDED = 1L;
+	private static final long DT_STRTAB = 5L;
+	private static final long DT_SONAME = 14L;
+	private static final int MAX_STRING_LENGTH = 4096;
+
+	private final List<String> needed = new ArrayList<String>();
+	private String soname;
+
+	private ElfFile() {
+	}
+
+	/**
+	 * Reads the ELF file
+	 * 
+	 * @return null if the file is not an ELF file
+	 * @throws IOException
+	 *             if the file cannot be read or is truncated
+	 */
+	static ElfFile read(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			return read(randomAccessFile.getChannel());
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static ElfFile read(FileChannel channel) throws IOException {
+		ByteBuffer ident = read(channel, 0L, 16, ByteOrder.LITTLE_ENDIAN);
+		if (ident.getInt(0) != 0x464C457F)
+			return null;
+		boolean is64Bit = ident.get(4) == ELFCLASS64;
+		ByteOrder order = ident.get(5) == ELFDATA2MSB ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+		ByteBuffer header = read(channel, 0L, is64Bit ? 64 : 52, order);
+		long programHeaderOffset = is64Bit ? header.getLong(32) : header.getInt(28) & 0xFFFFFFFFL;
+		int programHeaderSize = header.getShort(is64Bit ? 54 : 42) & 0xFFFF;
+		int programHeaderCount = header.getShort(is64Bit ? 56 : 44) & 0xFFFF;
+
+		// Segments map the virtual address of the string table to its offset
+		List<long[]> loadSegments = new ArrayList<long[]>();
+		long dynamicOffset = -1L;
+		long dynamicSize = 0L;
+		ByteBuffer programHeaders = read(channel, programHeaderOffset, programHeaderSize * programHeaderCount, order);
+		for (int i = 0; i < programHeaderCount; i++) {
+			int position = i * programHeaderSize;
+			int type = programHeaders.getInt(position);
+			long offset = getWord(programHeaders, position + (is64Bit ? 8 : 4), is64Bit);
+			long address = getWord(programHeaders, position + (is64Bit ? 16 : 8), is64Bit);
+			long size = getWord(programHeaders, position + (is64Bit ? 32 : 16), is64Bit);
+			if (type == PT_LOAD) {
+				loadSegments.add(new long[] { address, offset, size });
+			} else if (type == PT_DYNAMIC) {
+				dynamicOffset = offset;
+				dynamicSize = size;
+			}
+		}
+
+		ElfFile elfFile = new ElfFile();
+		if (dynamicOffset < 0L)
+			return elfFile;
+
+		int entrySize = is64Bit ? 16 : 8;
+		ByteBuffer dynamic = read(channel, dynamicOffset, (int) (dynamicSize - dynamicSize % entrySize), order);
+		List<Long> neededOffsets = new ArrayList<Long>();
+		long sonameOffset = -1L;
+		long stringTableAddress = -1L;
+		for (int position = 0; position + entrySize <= dynamic.limit(); position += entrySize) {
+			long tag = getWord(dynamic, position, is64Bit);
+			long value = getWord(dynamic, position + entrySize / 2, is64Bit);
+			if (tag == DT_NULL)
+				break;
+			if (tag == DT_NEEDED)
+				neededOffsets.add(value);
+			else if (tag == DT_SONAME)
+				sonameOffset = value;
+			else if (tag == DT_STRTAB)
+				stringTableAddress = value;
+		}
+
+		long stringTableOffset = -1L;
+		for (long[] segment : loadSegments) {
+			if (stringTableAddress >= segment[0] && stringTableAddress < segment[0] + segment[2])
+				stringTableOffset = stringTableAddress - segment[0] + segment[1];
+		}
+		if (stringTableOffset < 0L)
+			return elfFile;
+		for (Long neededOffset : neededOffsets) {
+			elfFile.needed.add(readString(channel, stringTableOffset + neededOffset));
+		}
+		if (sonameOffset >= 0L)
+			elfFile.soname = readString(channel, stringTableOffset + sonameOffset);
+		return elfFile;
+	}
+
+	/**
+	 * Compares the start of an ELF file with the JVM's os.arch, byte order
+	 * and, on Linux, OS ABI
+	 * 
+	 * @param header
+	 *            The first {@link #HEADER_SIZE} bytes of the file
+	 * @param length
+	 *            The number of bytes read, less if the file is shorter
+	 * @return A description of the mismatch or null if the file can be loaded
+	 *         or is not an ELF file, which is left to the dynamic linker
+	 */
+	static String getIncompatibility(byte[] header, int length) {
+		if (length < 4 || header[0] != 0x7F || header[1] != 'E' || header[2] != 'L' || header[3] != 'F')
+			return null;
+		if (length < HEADER_SIZE)
+			return "is a truncated ELF file";
+
+		String arch = System.getProperty("os.arch").toLowerCase(Locale.ENGLISH);
+		int expectedMachine = getMachine(arch);
+		int expectedClass = is64Bit(arch) ? ELFCLASS64 : ELFCLASS32;
+		int expectedData = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? ELFDATA2MSB : ELFDATA2LSB;
+		int elfClass = header[4];
+		int data = header[5];
+		int osAbi = header[7] & 0xFF;
+		ByteBuffer buffer = ByteBuffer.wrap(header, 0, length)
+				.order(data == ELFDATA2MSB ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		int machine = buffer.getShort(18) & 0xFFFF;
+
+		String expected = " but the JVM is " + arch + " (" + describe(expectedClass, expectedData, expectedMachine)
+				+ ")";
+		if (elfClass != expectedClass || data != expectedData || (expectedMachine != 0 && machine != expectedMachine))
+			return "is " + describe(elfClass, data, machine) + expected;
+		if (OsInformation.isLinux() && osAbi != ELFOSABI_SYSV && osAbi != ELFOSABI_GNU)
+			return "is built for OS ABI " + osAbi + " but the JVM is on Linux (OS ABI 0 or 3)";
+
+		if (machine == EM_ARM) {
+			int flags = buffer.getInt(36);
+			boolean hardFloat = OsInformation.getAbi().endsWith("hf");
+			if (hardFloat && (flags & EF_ARM_ABI_FLOAT_SOFT) != 0)
+				return "uses the soft-float ABI but the JVM ABI is " + OsInformation.getAbi();
+			if (!hardFloat && !OsInformation.getAbi().isEmpty() && (flags & EF_ARM_ABI_FLOAT_HARD) != 0)
+				return "uses the hard-float ABI but the JVM ABI is " + OsInformation.getAbi();
+		}
+		return null;
+	}
+
+	/**
+	 * @return The ELF e_machine for os.arch or 0 if unknown
+	 */
+	private static int getMachine(String arch) {
+		if (arch.equals("amd64") || arch.equals("x86_64"))
+			return EM_X86_64;
+		if (arch.equals("x86") || arch.matches("i[3-6]86"))
+			return EM_386;
+		if (arch.equals("aarch64") || arch.equals("arm64"))
+			return EM_AARCH64;
+		if (arch.startsWith("arm"))
+			return EM_ARM;
+		if (arch.startsWith("ppc64"))
+			return EM_PPC64;
+		if (arch.equals("s390x"))
+			return EM_S390;
+		if (arch.startsWith("riscv64"))
+			return EM_RISCV;
+		return 0;
+	}
+
+	private static boolean is64Bit(String arch) {
+		String dataModel = System.getProperty("sun.arch.data.model");
+		if (dataModel != null)
+			return dataModel.equals("64");
+		return arch.contains("64");
+	}
+
+	private static String describe(int elfClass, int data, int machine) {
+		StringBuilder result = new StringBuilder();
+		result.append(elfClass == ELFCLASS64 ? "64-bit" : elfClass == ELFCLASS32 ? "32-bit" : "class " + elfClass);
+		result.append(data == ELFDATA2MSB ? " big-endian " : data == ELFDATA2LSB ? " little-endian "
+				: " data " + data + " ");
+		switch (machine) {
+		case EM_386:
+			return result.append("x86").toString();
+		case EM_PPC64:
+			return result.append("PowerPC64").toString();
+		case EM_S390:
+			return result.append("S/390").toString();
+		case EM_ARM:
+			return result.append("ARM").toString();
+		case EM_X86_64:
+			return result.append("x86-64").toString();
+		case EM_AARCH64:
+			return result.append("AArch64").toString();
+		case EM_RISCV:
+			return result.append("RISC-V").toString();
+		case 0:
+			return result.append("unknown machine").toString();
+		default:
+			return result.append("e_machine ").append(machine).toString();
+		}
+	}
+
+	/**
+	 * @return The DT_NEEDED entries in the order the linker loads them
+	 */
+	List<String> getNeeded() {
+		return Collections.unmodifiableList(needed);
+	}
+
+	/**
+	 * @return null if the library has no SONAME
+	 */
+	String getSoname() {
+		return soname;
+	}
+
+	private static long getWord(ByteBuffer buffer, int position, boolean is64Bit) {
+		return is64Bit ? buffer.getLong(position) : buffer.getInt(position) & 0xFFFFFFFFL;
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order)
+			throws IOException {
+		if (position < 0L || length < 0 || position + length > channel.size())
+			throw new IOException("Truncated ELF file");
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Truncated ELF file");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static String readString(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = read(channel, position, (int) Math.min(MAX_STRING_LENGTH, channel.size() - position),
+				ByteOrder.LITTLE_ENDIAN);
+		int length = 0;
+		while (length < buffer.limit() && buffer.get(length) != 0) {
+			length++;
+		}
+		return new String(buffer.array(), 0, length, "UTF-8");
+	}
+}
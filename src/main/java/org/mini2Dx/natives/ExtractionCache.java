@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Housekeeping for the extraction roots of {@link ExtractionLocation}. Each
+ * process takes a shared lock on an {@link #IN_USE_FILE_NAME} marker in the
+ * directory of every library before it extracts or loads it, holds it for
+ * the life of the process and touches the marker to record when it was last
+ * used. Once per root per process, directories that have not been used for
+ * {@link #MAX_AGE_DAYS_PROPERTY} days are deleted, then the least recently
+ * used directories are deleted until the root is within
+ * {@link #MAX_BYTES_PROPERTY}. Only directories named the way natives-loader
+ * names them are considered, and directories locked by a running process are
+ * never deleted. Collection runs on a background daemon thread.
+ */
+class ExtractionCache {
+	/**
+	 * System property to disable housekeeping, e.g. <code>false</code>
+	 */
+	static final String ENABLED_PROPERTY = "mini2Dx.natives.cacheGc";
+	/**
+	 * System property for the maximum size of an extraction root in bytes,
+	 * 1GB by default
+	 */
+	static final String MAX_BYTES_PROPERTY = "mini2Dx.natives.cacheMaxBytes";
+	/**
+	 * System property for the number of days an unused directory is kept, 30
+	 * by default
+	 */
+	static final String MAX_AGE_DAYS_PROPERTY = "mini2Dx.natives.cacheMaxAgeDays";
+	static final String IN_USE_FILE_NAME = ".in-use";
+
+	private static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+	private static final long DEFAULT_MAX_AGE_DAYS = 30L;
+	/**
+	 * Directories used more recently than this are kept regardless of size,
+	 * since they may still be being extracted to
+	 */
+	private static final long MIN_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10L);
+	/**
+	 * The names of extraction directories: a CRC-32, a checksum prefixed by
+	 * one of the other built-in {@link ChecksumStrategy} names or a random
+	 * UUID
+	 */
+	private static final Pattern DIRECTORY_NAME = Pattern.compile("[0-9a-f]{1,8}|crc32c-[0-9a-f]{1,8}"
+			+ "|xxhash64-[0-9a-f]{1,16}|sha256-[0-9a-f]{64}"
+			+ "|[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+	// Guarded by the class, file locks are held per JVM
+	private static final Map<File, FileLock> IN_USE_LOCKS = new HashMap<File, FileLock>();
+	private static final Set<File> COLLECTED_ROOTS = new HashSet<File>();
+
+	private static ExecutorService executor;
+
+	/**
+	 * Records that the process is using a file in an extraction root before
+	 * it is extracted or loaded, so that no other process deletes it, then
+	 * collects the root in the background if it has not been collected by
+	 * this process yet. Files outside the extraction roots are ignored.
+	 */
+	static void used(File file) {
+		if (file == null || "false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY)))
+			return;
+		File directory = file.getAbsoluteFile().getParentFile();
+		final File root = directory.getParentFile();
+		if (root == null || !isRoot(root))
+			return;
+		synchronized (ExtractionCache.class) {
+			markInUse(directory);
+			if (!COLLECTED_ROOTS.add(root))
+				return;
+		}
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				collect(root);
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors
+					.newSingleThreadExecutor(new SharedLibraryLoader.DaemonThreadFactory("natives-loader-cache"));
+		}
+		return executor;
+	}
+
+	private static boolean isRoot(File directory) {
+		for (ExtractionLocation location : ExtractionLocation.values()) {
+			File root = location.getRoot();
+			if (root != null && root.getAbsoluteFile().equals(directory))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Holds a shared lock on the directory's marker for the life of the
+	 * process and updates its last used time. If another process is deleting
+	 * the directory this waits for it to finish and creates it again.
+	 */
+	private static void markInUse(File directory) {
+		if (IN_USE_LOCKS.containsKey(directory))
+			return;
+		File marker = new File(directory, IN_USE_FILE_NAME);
+		for (int attempt = 0; attempt < 3; attempt++) {
+			RandomAccessFile file = null;
+			try {
+				directory.mkdirs();
+				file = new RandomAccessFile(marker, "rw");
+				FileLock lock = file.getChannel().lock(0L, Long.MAX_VALUE, true);
+				if (!marker.exists()) {
+					// Deleted by the process that held the lock
+					lock.release();
+					file.close();
+					continue;
+				}
+				marker.setLastModified(System.currentTimeMillis());
+				IN_USE_LOCKS.put(directory, lock);
+				return;
+			} catch (IOException ex) {
+				SharedLibraryLoader.closeQuietly(file);
+				return;
+			} catch (OverlappingFileLockException ex) {
+				SharedLibraryLoader.closeQuietly(file);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Deletes expired directories, then the least recently used directories
+	 * until the root is within the maximum size. Only directories with an
+	 * extraction directory name and an {@link #IN_USE_FILE_NAME} marker are
+	 * considered, anything else in the root is left alone. A directory was
+	 * last used when any file in it, including its marker, was last modified.
+	 */
+	private static void collect(File root) {
+		long maxBytes = Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+		long maxAgeMillis = TimeUnit.DAYS.toMillis(Long.getLong(MAX_AGE_DAYS_PROPERTY, DEFAULT_MAX_AGE_DAYS));
+		File[] directories = root.listFiles();
+		if (directories == null)
+			return;
+
+		final Map<File, Long> lastUsed = new HashMap<File, Long>();
+		Map<File, Long> sizes = new HashMap<File, Long>();
+		long totalBytes = 0L;
+		for (File directory : directories) {
+			if (!DIRECTORY_NAME.matcher(directory.getName()).matches())
+				continue;
+			File[] files = directory.listFiles();
+			if (files == null || !isMarkedExtractionDirectory(files))
+				continue;
+			long size = 0L;
+			long lastModified = directory.lastModified();
+			for (File file : files) {
+				size += file.length();
+				lastModified = Math.max(lastModified, file.lastModified());
+			}
+			lastUsed.put(directory, lastModified);
+			sizes.put(directory, size);
+			totalBytes += size;
+		}
+
+		List<File> leastRecentlyUsed = new ArrayList<File>(lastUsed.keySet());
+		Collections.sort(leastRecentlyUsed, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				return lastUsed.get(file1).compareTo(lastUsed.get(file2));
+			}
+		});
+		long now = System.currentTimeMillis();
+		for (File directory : leastRecentlyUsed) {
+			long age = now - lastUsed.get(directory);
+			if (age <= maxAgeMillis && totalBytes <= maxBytes)
+				break;
+			if (age < MIN_AGE_MILLIS)
+				continue;
+			if (delete(directory))
+				totalBytes -= sizes.get(directory);
+		}
+	}
+
+	/**
+	 * @return True if the files include the {@link #IN_USE_FILE_NAME} marker
+	 *         and no directories, which natives-loader never creates in an
+	 *         extraction directory
+	 */
+	private static boolean isMarkedExtractionDirectory(File[] files) {
+		boolean marked = false;
+		for (File file : files) {
+			if (file.isDirectory())
+				return false;
+			if (file.getName().equals(IN_USE_FILE_NAME))
+				marked = true;
+		}
+		return marked;
+	}
+
+	/**
+	 * Deletes the directory unless this or another process holds its marker.
+	 * The marker is deleted while the lock is held so that a process waiting
+	 * to use the directory sees it was deleted, see
+	 * {@link #markInUse(File)}.
+	 * 
+	 * @return True if the directory was deleted
+	 */
+	private static synchronized boolean delete(File directory) {
+		if (IN_USE_LOCKS.containsKey(directory))
+			return false;
+		File marker = new File(directory, IN_USE_FILE_NAME);
+		if (!marker.isFile())
+			return false;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(marker, "rw");
+			FileChannel channel = file.getChannel();
+			FileLock lock = channel.tryLock();
+			if (lock == null)
+				return false;
+			try {
+				File[] files = directory.listFiles();
+				if (files != null) {
+					for (File extractedFile : files) {
+						if (!extractedFile.equals(marker))
+							extractedFile.delete();
+					}
+				}
+				marker.delete();
+			} finally {
+				lock.release();
+			}
+		} catch (IOException ex) {
+			return false;
+		} catch (OverlappingFileLockException ex) {
+			return false;
+		} finally {
+			SharedLibraryLoader.closeQuietly(file);
+		}
+		return directory.delete();
+	}
+}
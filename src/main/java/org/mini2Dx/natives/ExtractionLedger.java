@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Persistent record of previously extracted libraries. Maps a source (jar
+ * path, jar size, jar modification time and entry name) to the extracted
+ * file, its size, modification time and checksum so that a warm start can
+ * load a library after a single stat of each file instead of re-reading it.
+ * Each extraction root has its own ledger recording the files extracted
+ * into it.
+ */
+class ExtractionLedger {
+	private static final String FILE_NAME = "natives-loader.ledger";
+
+	private static final Map<File, ExtractionLedger> LEDGERS = new HashMap<File, ExtractionLedger>();
+
+	private final File file;
+	private final Properties entries = new Properties();
+	private long loadedLastModified = -1L;
+
+	ExtractionLedger(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the ledger stored in the root of an extraction location
+	 * 
+	 * @return null if the location has no root
+	 */
+	static synchronized ExtractionLedger get(ExtractionLocation location) {
+		File root = location.getRoot();
+		if (root == null)
+			return null;
+		root = root.getAbsoluteFile();
+		ExtractionLedger ledger = LEDGERS.get(root);
+		if (ledger == null) {
+			ledger = new ExtractionLedger(new File(root, FILE_NAME));
+			LEDGERS.put(root, ledger);
+		}
+		return ledger;
+	}
+
+	/**
+	 * Returns the ledger of the extraction root a file was extracted into
+	 * 
+	 * @return null if the file is not in the root of an
+	 *         {@link ExtractionLocation}
+	 */
+	static ExtractionLedger forFile(File extractedFile) {
+		File directory = extractedFile.getAbsoluteFile().getParentFile();
+		File root = directory != null ? directory.getParentFile() : null;
+		if (root == null)
+			return null;
+		for (ExtractionLocation location : ExtractionLocation.values()) {
+			File locationRoot = location.getRoot();
+			if (locationRoot != null && locationRoot.getAbsoluteFile().equals(root))
+				return get(location);
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up the source key in the ledger of each extraction location,
+	 * starting with the preferred location
+	 * 
+	 * @param preferredLocation
+	 *            The location libraries were last extracted to or null
+	 * @return null if no ledger has a valid record, see
+	 *         {@link #lookup(String, ChecksumStrategy)}
+	 */
+	static File find(ExtractionLocation preferredLocation, String sourceKey, ChecksumStrategy checksumStrategy) {
+		if (sourceKey == null)
+			return null;
+		if (preferredLocation != null) {
+			ExtractionLedger ledger = get(preferredLocation);
+			File file = ledger != null ? ledger.lookup(sourceKey, checksumStrategy) : null;
+			if (file != null)
+				return file;
+		}
+		for (ExtractionLocation location : ExtractionLocation.values()) {
+			if (location == preferredLocation)
+				continue;
+			ExtractionLedger ledger = get(location);
+			File file = ledger != null ? ledger.lookup(sourceKey, checksumStrategy) : null;
+			if (file != null)
+				return file;
+		}
+		return null;
+	}
+
+	/**
+	 * Builds the ledger key for a source entry
+	 *
+	 * @param source
+	 *            The jar or directory the entry is read from
+	 * @param entryName
+	 *            The name of the entry within the source
+	 * @return null if the source does not exist
+	 */
+	static String key(File source, String entryName) {
+		if (!source.exists())
+			return null;
+		return source.getAbsolutePath() + '!' + source.length() + '!' + source.lastModified() + '!' + entryName;
+	}
+
+	/**
+	 * Returns the extracted file recorded for the source key if it is still
+	 * present with the recorded size and modification time and was verified
+	 * with the same {@link ChecksumStrategy}. Since the ledger lives in a
+	 * predictable location, the file must also be in an
+	 * {@link ExtractionLocation} and it and its directory must be owned by the
+	 * current user.
+	 *
+	 * @return null if there is no valid record
+	 */
+	synchronized File lookup(String sourceKey, ChecksumStrategy checksumStrategy) {
+		if (sourceKey == null)
+			return null;
+		refresh();
+		String path = entries.getProperty(sourceKey + ".path");
+		if (path == null)
+			return null;
+		String checksum = entries.getProperty(sourceKey + ".checksum");
+		if (checksum == null || !checksum.startsWith(checksumStrategy.getName() + ":"))
+			return null;
+		try {
+			File extractedFile = new File(path);
+			if (extractedFile.length() != Long.parseLong(entries.getProperty(sourceKey + ".size")))
+				return null;
+			if (extractedFile.lastModified() != Long.parseLong(entries.getProperty(sourceKey + ".mtime")))
+				return null;
+			if (!isTrusted(extractedFile))
+				return null;
+			return extractedFile;
+		} catch (NumberFormatException ignored) {
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the file is within the root of an
+	 * {@link ExtractionLocation} and it and its directory are owned by the
+	 * current user
+	 */
+	static boolean isTrusted(File extractedFile) {
+		try {
+			File file = extractedFile.getCanonicalFile();
+			if (!isInExtractionRoot(file))
+				return false;
+			return isOwnedByCurrentUser(file) && isOwnedByCurrentUser(file.getParentFile());
+		} catch (IOException ignored) {
+		} catch (SecurityException ignored) {
+		}
+		return false;
+	}
+
+	private static boolean isInExtractionRoot(File file) throws IOException {
+		for (ExtractionLocation location : ExtractionLocation.values()) {
+			File root = location.getRoot();
+			if (root == null)
+				continue;
+			if (file.getPath().startsWith(root.getCanonicalPath() + File.separator))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isOwnedByCurrentUser(File file) throws IOException {
+		String owner;
+		try {
+			owner = Files.getOwner(file.toPath()).getName();
+		} catch (UnsupportedOperationException ex) {
+			return false;
+		}
+		String user = System.getProperty("user.name");
+		// Windows owners are qualified by their domain
+		return owner.equals(user) || owner.endsWith("\\" + user);
+	}
+
+	/**
+	 * Records an extracted file against its source key. Failures to persist
+	 * the ledger are ignored since it is only an optimisation.
+	 */
+	synchronized void record(String sourceKey, File extractedFile, ChecksumStrategy checksumStrategy,
+			String checksum) {
+		if (sourceKey == null || !extractedFile.exists())
+			return;
+		refresh();
+		entries.setProperty(sourceKey + ".path", extractedFile.getAbsolutePath());
+		entries.setProperty(sourceKey + ".size", String.valueOf(extractedFile.length()));
+		entries.setProperty(sourceKey + ".mtime", String.valueOf(extractedFile.lastModified()));
+		entries.setProperty(sourceKey + ".checksum", checksumStrategy.getName() + ":" + checksum);
+
+		File tmpFile = new File(file.getParentFile(), FILE_NAME + "." + UUID.randomUUID().toString());
+		OutputStream output = null;
+		try {
+			file.getParentFile().mkdirs();
+			output = new FileOutputStream(tmpFile);
+			entries.store(output, "natives-loader extraction ledger");
+			output.close();
+			output = null;
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			loadedLastModified = file.lastModified();
+		} catch (IOException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(output);
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Reloads the ledger from disk if another process has updated it
+	 */
+	private void refresh() {
+		long lastModified = file.lastModified();
+		if (lastModified == 0L || lastModified == loadedLastModified)
+			return;
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			Properties properties = new Properties();
+			properties.load(input);
+			entries.putAll(properties);
+			loadedLastModified = lastModified;
+		} catch (IOException ignored) {
+		} catch (IllegalArgumentException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(input);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The locations libraries can be extracted to, in order of preference
+ */
+enum ExtractionLocation {
+	/**
+	 * Directory set by the {@link #EXTRACTION_DIR_PROPERTY} system property
+	 */
+	CONFIGURED,
+	/**
+	 * Temp directory with username in path
+	 */
+	TEMP_DIRECTORY,
+	/**
+	 * System provided temp file
+	 */
+	TEMP_FILE,
+	/**
+	 * User home
+	 */
+	USER_HOME,
+	/**
+	 * Relative directory
+	 */
+	RELATIVE;
+
+	/**
+	 * System property to set a preferred extraction directory. When set it is
+	 * used without probing whether it can be written.
+	 */
+	static final String EXTRACTION_DIR_PROPERTY = "mini2Dx.natives.extractionDir";
+
+	/**
+	 * Returns the file in this location
+	 *
+	 * @param dirName
+	 *            The name of the subdirectory for the file
+	 * @param fileName
+	 *            The name of the file
+	 * @return null if this location is unavailable
+	 */
+	File getFile(String dirName, String fileName) {
+		if (this == TEMP_FILE) {
+			try {
+				File file = File.createTempFile(dirName, null);
+				if (file.delete())
+					return new File(file, fileName);
+			} catch (IOException ignored) {
+			}
+			return null;
+		}
+		File root = getRoot();
+		if (root == null)
+			return null;
+		return new File(new File(root, dirName), fileName);
+	}
+
+	/**
+	 * Returns the directory this location extracts subdirectories into
+	 *
+	 * @return null if this location is unavailable or is not a dedicated
+	 *         directory ({@link #TEMP_FILE})
+	 */
+	File getRoot() {
+		switch (this) {
+		case CONFIGURED:
+			String extractionDir = System.getProperty(EXTRACTION_DIR_PROPERTY);
+			if (extractionDir == null)
+				return null;
+			return new File(extractionDir);
+		case TEMP_DIRECTORY:
+			return new File(System.getProperty("java.io.tmpdir") + "/natives-loader" + System.getProperty("user.name"));
+		case TEMP_FILE:
+			return null;
+		case USER_HOME:
+			return new File(System.getProperty("user.home") + "/.natives-loader");
+		case RELATIVE:
+		default:
+			return new File(".temp");
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates extraction of a file between threads and between processes so
+ * that only one writes it while the others wait. Processes are coordinated
+ * with a {@link FileLock} on a lock file next to the extracted file, threads
+ * within this JVM with a {@link ReentrantLock} since file locks are held per
+ * JVM.
+ */
+class ExtractionLock {
+	private static final ConcurrentMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+
+	private final ReentrantLock lock;
+	private RandomAccessFile lockFile;
+	private FileLock fileLock;
+
+	private ExtractionLock(ReentrantLock lock) {
+		this.lock = lock;
+	}
+
+	/**
+	 * Blocks until this thread may extract the file. If the lock file cannot
+	 * be created or locked only threads in this JVM are coordinated. Other
+	 * processes are only coordinated with if lockFile is true, so that no
+	 * lock file is left in directories natives-loader does not own.
+	 */
+	static ExtractionLock acquire(File extractedFile, boolean lockFile) {
+		String path = extractedFile.getAbsolutePath();
+		ReentrantLock lock = LOCKS.get(path);
+		if (lock == null) {
+			lock = new ReentrantLock();
+			ReentrantLock existingLock = LOCKS.putIfAbsent(path, lock);
+			if (existingLock != null)
+				lock = existingLock;
+		}
+		lock.lock();
+
+		ExtractionLock result = new ExtractionLock(lock);
+		if (!lockFile || lock.getHoldCount() > 1)
+			return result;
+		try {
+			extractedFile.getParentFile().mkdirs();
+			result.lockFile = new RandomAccessFile(path + ".lock", "rw");
+			result.fileLock = result.lockFile.getChannel().lock();
+		} catch (IOException ex) {
+			SharedLibraryLoader.closeQuietly(result.lockFile);
+			result.lockFile = null;
+		} catch (OverlappingFileLockException ex) {
+			SharedLibraryLoader.closeQuietly(result.lockFile);
+			result.lockFile = null;
+		}
+		return result;
+	}
+
+	void release() {
+		try {
+			if (fileLock != null)
+				fileLock.release();
+		} catch (IOException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(lockFile);
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+/**
+ * Emits Java Flight Recorder events for library loading on Java 11 and
+ * above. This is the Java 7 version which does nothing, the Java 11 version
+ * is packaged under META-INF/versions/11 of the multi-release jar.
+ */
+class FlightRecorderSupport {
+	/**
+	 * System property to set to true to emit Java Flight Recorder events
+	 */
+	static final String ENABLED_PROPERTY = "mini2Dx.natives.jfr";
+
+	/**
+	 * Registers a {@link NativeLoadListener} that emits events if enabled and
+	 * supported by the JVM
+	 */
+	static void install() {
+	}
+}
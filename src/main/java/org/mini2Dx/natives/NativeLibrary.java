@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+
+/**
+ * A handle to a library that is loaded the first time it is needed, see
+ * {@link SharedLibraryLoader#register(String)}
+ */
+public final class NativeLibrary {
+	private final SharedLibraryLoader loader;
+	private final String libraryName;
+	private volatile boolean loaded;
+	private volatile File file;
+
+	NativeLibrary(SharedLibraryLoader loader, String libraryName) {
+		this.loader = loader;
+		this.libraryName = libraryName;
+	}
+
+	/**
+	 * Loads the library if it has not been loaded yet. Once loaded this is a
+	 * single volatile read.
+	 * 
+	 * @return The {@link File} the library was loaded from or null if it was
+	 *         loaded via a different method (e.g. on iOS and Android)
+	 * @throws RuntimeException
+	 *             if the library cannot be loaded
+	 */
+	public File ensureLoaded() {
+		if (loaded)
+			return file;
+		file = loader.load(libraryName);
+		loaded = true;
+		return file;
+	}
+
+	/**
+	 * @return True if the library has been loaded by this or any other handle
+	 *         or {@link SharedLibraryLoader}
+	 */
+	public boolean isLoaded() {
+		return loaded || SharedLibraryLoader.isLoaded(libraryName);
+	}
+
+	public String getLibraryName() {
+		return libraryName;
+	}
+}
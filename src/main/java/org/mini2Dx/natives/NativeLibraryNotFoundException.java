@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+/**
+ * Thrown when a library is not in the natives jar, on the classpath or at
+ * java.library.path. No stack trace is captured since missing optional
+ * libraries are expected, see {@link SharedLibraryLoader#tryLoad(String)}.
+ */
+public class NativeLibraryNotFoundException extends RuntimeException {
+	private static final long serialVersionUID = 2470957291585311498L;
+
+	public NativeLibraryNotFoundException(String libraryFilename) {
+		super("Couldn't find shared library '" + libraryFilename + "'", null, false, false);
+	}
+}
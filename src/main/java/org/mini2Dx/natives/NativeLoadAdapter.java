@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+
+/**
+ * Empty implementation of {@link NativeLoadListener} to extend when only
+ * some events are of interest
+ */
+public class NativeLoadAdapter implements NativeLoadListener {
+
+	@Override
+	public void onPhase(String libraryFilename, NativeLoadPhase phase, File file, long durationNanos, long bytes) {
+	}
+
+	@Override
+	public void onChecksum(String libraryFilename, ChecksumSource source, ChecksumStrategy checksumStrategy) {
+	}
+
+	@Override
+	public void onCacheResult(String libraryFilename, boolean hit) {
+	}
+
+	@Override
+	public void onExtractionLocation(String libraryFilename, File directory, boolean fallback, Throwable failure) {
+	}
+
+	@Override
+	public void onLoaded(String libraryName, File file, long durationNanos) {
+	}
+
+	@Override
+	public void onFailed(String libraryName, Throwable cause, long durationNanos) {
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+
+/**
+ * Receives events as {@link SharedLibraryLoader} loads native libraries.
+ * Register with {@link SharedLibraryLoader#addListener(NativeLoadListener)}.
+ * Events may be delivered on any thread, including concurrently for
+ * different libraries.
+ */
+public interface NativeLoadListener {
+	/**
+	 * Called when a phase of loading a library completes
+	 * 
+	 * @param libraryFilename
+	 *            The platform dependent filename of the library
+	 * @param phase
+	 *            The {@link NativeLoadPhase} that completed
+	 * @param file
+	 *            The extracted file the phase operated on or null for phases
+	 *            that only read the source
+	 * @param durationNanos
+	 *            The time the phase took in nanoseconds
+	 * @param bytes
+	 *            The number of bytes read or written during the phase
+	 */
+	void onPhase(String libraryFilename, NativeLoadPhase phase, File file, long durationNanos, long bytes);
+
+	/**
+	 * Called when the checksum of a library or a previously extracted file
+	 * has been established, just before the
+	 * {@link NativeLoadPhase#SOURCE_CHECKSUM} or
+	 * {@link NativeLoadPhase#EXISTING_CHECK} phase is reported on the same
+	 * thread
+	 * 
+	 * @param libraryFilename
+	 *            The platform dependent filename of the library
+	 * @param source
+	 *            Where the checksum came from
+	 * @param checksumStrategy
+	 *            The {@link ChecksumStrategy} of the checksum
+	 */
+	void onChecksum(String libraryFilename, ChecksumSource source, ChecksumStrategy checksumStrategy);
+
+	/**
+	 * Called after looking up a previously extracted library
+	 * 
+	 * @param libraryFilename
+	 *            The platform dependent filename of the library
+	 * @param hit
+	 *            True if a previously extracted file was found and reused
+	 */
+	void onCacheResult(String libraryFilename, boolean hit);
+
+	/**
+	 * Called after attempting to extract and load a library in a directory
+	 * 
+	 * @param libraryFilename
+	 *            The platform dependent filename of the library
+	 * @param directory
+	 *            The directory the library was extracted to
+	 * @param fallback
+	 *            True if a previous location was attempted and failed
+	 * @param failure
+	 *            The reason the attempt failed or null if it succeeded
+	 */
+	void onExtractionLocation(String libraryFilename, File directory, boolean fallback, Throwable failure);
+
+	/**
+	 * Called when a library has been loaded
+	 * 
+	 * @param libraryName
+	 *            The platform independent library name
+	 * @param file
+	 *            The file the library was loaded from or null if it was
+	 *            loaded by the platform
+	 * @param durationNanos
+	 *            The total time taken in nanoseconds
+	 */
+	void onLoaded(String libraryName, File file, long durationNanos);
+
+	/**
+	 * Called when a library failed to load
+	 * 
+	 * @param libraryName
+	 *            The platform independent library name
+	 * @param cause
+	 *            The reason the library could not be loaded
+	 * @param durationNanos
+	 *            The total time taken in nanoseconds
+	 */
+	void onFailed(String libraryName, Throwable cause, long durationNanos);
+}
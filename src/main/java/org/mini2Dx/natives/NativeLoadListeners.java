@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dispatches events to the registered {@link NativeLoadListener}s. Returns
+ * immediately when none are registered.
+ */
+class NativeLoadListeners implements NativeLoadListener {
+	private final List<NativeLoadListener> listeners = new CopyOnWriteArrayList<NativeLoadListener>();
+
+	void add(NativeLoadListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("listener cannot be null.");
+		listeners.add(listener);
+	}
+
+	void remove(NativeLoadListener listener) {
+		listeners.remove(listener);
+	}
+
+	boolean isEmpty() {
+		return listeners.isEmpty();
+	}
+
+	@Override
+	public void onPhase(String libraryFilename, NativeLoadPhase phase, File file, long durationNanos, long bytes) {
+		if (listeners.isEmpty())
+			return;
+		for (NativeLoadListener listener : listeners) {
+			listener.onPhase(libraryFilename, phase, file, durationNanos, bytes);
+		}
+	}
+
+	@Override
+	public void onChecksum(String libraryFilename, ChecksumSource source, ChecksumStrategy checksumStrategy) {
+		if (listeners.isEmpty())
+			return;
+		for (NativeLoadListener listener : listeners) {
+			listener.onChecksum(libraryFilename, source, checksumStrategy);
+		}
+	}
+
+	@Override
+	public void onCacheResult(String libraryFilename, boolean hit) {
+		if (listeners.isEmpty())
+			return;
+		for (NativeLoadListener listener : listeners) {
+			listener.onCacheResult(libraryFilename, hit);
+		}
+	}
+
+	@Override
+	public void onExtractionLocation(String libraryFilename, File directory, boolean fallback, Throwable failure) {
+		if (listeners.isEmpty())
+			return;
+		for (NativeLoadListener listener : listeners) {
+			listener.onExtractionLocation(libraryFilename, directory, fallback, failure);
+		}
+	}
+
+	@Override
+	public void onLoaded(String libraryName, File file, long durationNanos) {
+		if (listeners.isEmpty())
+			return;
+		for (NativeLoadListener listener : listeners) {
+			listener.onLoaded(libraryName, file, durationNanos);
+		}
+	}
+
+	@Override
+	public void onFailed(String libraryName, Throwable cause, long durationNanos) {
+		if (listeners.isEmpty())
+			return;
+		for (NativeLoadListener listener : listeners) {
+			listener.onFailed(libraryName, cause, durationNanos);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+/**
+ * The phases of loading a native library reported to a
+ * {@link NativeLoadListener}
+ */
+public enum NativeLoadPhase {
+	/**
+	 * Waiting for another thread loading the same library
+	 */
+	LOCK_WAIT,
+	/**
+	 * Locating the library in the natives jar or on the classpath
+	 */
+	LOOKUP,
+	/**
+	 * Computing the checksum of the library in the jar
+	 */
+	SOURCE_CHECKSUM,
+	/**
+	 * Checking whether a previously extracted file matches the source
+	 */
+	EXISTING_CHECK,
+	/**
+	 * Writing the library to the extraction directory
+	 */
+	EXTRACT,
+	/**
+	 * Calling System.load on the extracted file
+	 */
+	LOAD
+}
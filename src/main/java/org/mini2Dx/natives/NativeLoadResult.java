@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+
+/**
+ * The result of {@link SharedLibraryLoader#tryLoad(String)}
+ */
+public final class NativeLoadResult {
+	private final String libraryName;
+	private final File file;
+	private final Throwable failure;
+
+	NativeLoadResult(String libraryName, File file, Throwable failure) {
+		this.libraryName = libraryName;
+		this.file = file;
+		this.failure = failure;
+	}
+
+	public String getLibraryName() {
+		return libraryName;
+	}
+
+	/**
+	 * @return True if the library is loaded
+	 */
+	public boolean isLoaded() {
+		return failure == null;
+	}
+
+	/**
+	 * @return True if the library could not be found for this platform
+	 */
+	public boolean isMissing() {
+		return failure instanceof NativeLibraryNotFoundException;
+	}
+
+	/**
+	 * @return The {@link File} the library was loaded from or null if it
+	 *         failed to load or was loaded via a different method (e.g. on
+	 *         iOS and Android)
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The reason the library failed to load or null if it loaded
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+}
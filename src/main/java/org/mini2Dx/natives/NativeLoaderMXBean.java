@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.util.Map;
+
+/**
+ * JMX view of what {@link SharedLibraryLoader} has done in this JVM. Register
+ * with {@link SharedLibraryLoader#registerMBean()} or by setting the
+ * <code>mini2Dx.natives.jmx</code> system property to true.
+ */
+public interface NativeLoaderMXBean {
+	/**
+	 * @return The loaded library names mapped to the path they were loaded
+	 *         from
+	 */
+	Map<String, String> getLoadedLibraries();
+
+	/**
+	 * @return The total bytes written extracting libraries
+	 */
+	long getBytesExtracted();
+
+	/**
+	 * @return The total bytes of previously extracted libraries that were
+	 *         loaded without being extracted again
+	 */
+	long getBytesReused();
+
+	/**
+	 * @return The number of libraries loaded from the extraction ledger
+	 */
+	long getCacheHits();
+
+	/**
+	 * @return The number of libraries not found in the extraction ledger
+	 */
+	long getCacheMisses();
+
+	/**
+	 * @return The total time spent computing checksums in nanoseconds
+	 */
+	long getChecksumTimeNanos();
+
+	/**
+	 * @return The total time spent waiting for load locks in nanoseconds
+	 */
+	long getLockWaitTimeNanos();
+
+	/**
+	 * @return The extraction roots mapped to the number of failed attempts
+	 *         to extract and load a library there
+	 */
+	Map<String, Long> getFailedAttemptsByLocation();
+
+	/**
+	 * @return The extraction root libraries were last successfully loaded
+	 *         from or null if none have been
+	 */
+	String getExtractionRoot();
+}
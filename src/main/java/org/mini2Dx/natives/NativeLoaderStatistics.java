@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects {@link NativeLoadListener} events for the {@link NativeLoaderMXBean}
+ */
+class NativeLoaderStatistics extends NativeLoadAdapter implements NativeLoaderMXBean {
+	static final String OBJECT_NAME = "org.mini2Dx.natives:type=NativeLoader";
+	static final String ENABLED_PROPERTY = "mini2Dx.natives.jmx";
+
+	private static NativeLoaderStatistics instance;
+
+	private final AtomicLong bytesExtracted = new AtomicLong();
+	private final AtomicLong bytesReused = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+	private final AtomicLong checksumTimeNanos = new AtomicLong();
+	private final AtomicLong lockWaitTimeNanos = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong> failedAttempts = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, Boolean> extractedLibraries = new ConcurrentHashMap<String, Boolean>();
+	private volatile String extractionRoot;
+
+	/**
+	 * Registers the MBean with the platform MBean server if it has not been
+	 * already. If another class loader has already registered one, this copy
+	 * of the loader is registered under a name qualified by its class loader.
+	 */
+	static synchronized void register() {
+		if (instance != null)
+			return;
+		try {
+			NativeLoaderStatistics statistics = new NativeLoaderStatistics();
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				server.registerMBean(statistics, new ObjectName(OBJECT_NAME));
+			} catch (InstanceAlreadyExistsException e) {
+				server.registerMBean(statistics, new ObjectName(OBJECT_NAME + ",classLoader="
+						+ Integer.toHexString(System.identityHashCode(NativeLoaderStatistics.class.getClassLoader()))));
+			}
+			SharedLibraryLoader.addListener(statistics);
+			instance = statistics;
+		} catch (JMException ex) {
+			throw new RuntimeException("Couldn't register MBean " + OBJECT_NAME, ex);
+		}
+	}
+
+	@Override
+	public void onPhase(String libraryFilename, NativeLoadPhase phase, File file, long durationNanos, long bytes) {
+		switch (phase) {
+		case SOURCE_CHECKSUM:
+		case EXISTING_CHECK:
+			checksumTimeNanos.addAndGet(durationNanos);
+			break;
+		case EXTRACT:
+			bytesExtracted.addAndGet(bytes);
+			extractedLibraries.put(libraryFilename, Boolean.TRUE);
+			break;
+		case LOAD:
+			if (extractedLibraries.remove(libraryFilename) == null)
+				bytesReused.addAndGet(bytes);
+			File directory = file.getAbsoluteFile().getParentFile();
+			if (directory != null)
+				extractionRoot = directory.getParent();
+			break;
+		case LOCK_WAIT:
+			lockWaitTimeNanos.addAndGet(durationNanos);
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void onCacheResult(String libraryFilename, boolean hit) {
+		(hit ? cacheHits : cacheMisses).incrementAndGet();
+	}
+
+	@Override
+	public void onExtractionLocation(String libraryFilename, File directory, boolean fallback, Throwable failure) {
+		String root = directory.getAbsoluteFile().getParent();
+		if (failure == null) {
+			extractionRoot = root;
+			return;
+		}
+		AtomicLong attempts = failedAttempts.get(root);
+		if (attempts == null) {
+			attempts = new AtomicLong();
+			AtomicLong existingAttempts = failedAttempts.putIfAbsent(root, attempts);
+			if (existingAttempts != null)
+				attempts = existingAttempts;
+		}
+		attempts.incrementAndGet();
+	}
+
+	@Override
+	public Map<String, String> getLoadedLibraries() {
+		Map<String, String> result = new HashMap<String, String>();
+		for (Map.Entry<String, File> entry : SharedLibraryLoader.getLoadedLibraries().entrySet()) {
+			result.put(entry.getKey(), entry.getValue() != null ? entry.getValue().getAbsolutePath() : "");
+		}
+		return result;
+	}
+
+	@Override
+	public long getBytesExtracted() {
+		return bytesExtracted.get();
+	}
+
+	@Override
+	public long getBytesReused() {
+		return bytesReused.get();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	@Override
+	public long getChecksumTimeNanos() {
+		return checksumTimeNanos.get();
+	}
+
+	@Override
+	public long getLockWaitTimeNanos() {
+		return lockWaitTimeNanos.get();
+	}
+
+	@Override
+	public Map<String, Long> getFailedAttemptsByLocation() {
+		Map<String, Long> result = new HashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : failedAttempts.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+		return result;
+	}
+
+	@Override
+	public String getExtractionRoot() {
+		return extractionRoot;
+	}
+}
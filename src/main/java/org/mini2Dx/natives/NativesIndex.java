@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * Index of the libraries in a natives jar or on the classpath, stored at
+ * {@link #PATH} and generated by {@link NativesIndexer}. Each line holds the
+ * platform, library filename, resource path, size and checksum of a library
+ * separated by tabs, so that libraries are found without probing resource
+ * paths and their checksums are known without reading them.
+ */
+class NativesIndex {
+	static final String PATH = "META-INF/natives-loader.idx";
+	static final String HEADER = "# natives-loader index: platform, filename, resource path, size, checksum";
+
+	private static NativesIndex classpathIndex;
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * Returns the merged index of every {@link #PATH} on the classpath, read
+	 * the first time it is requested
+	 */
+	static synchronized NativesIndex getClasspathIndex() {
+		if (classpathIndex != null)
+			return classpathIndex;
+		classpathIndex = new NativesIndex();
+		try {
+			ClassLoader classLoader = NativesIndex.class.getClassLoader();
+			Enumeration<URL> urls = classLoader != null ? classLoader.getResources(PATH)
+					: ClassLoader.getSystemResources(PATH);
+			for (URL url : Collections.list(urls)) {
+				InputStream input = null;
+				try {
+					input = url.openStream();
+					classpathIndex.read(input, url);
+				} catch (IOException ignored) {
+				} finally {
+					SharedLibraryLoader.closeQuietly(input);
+				}
+			}
+		} catch (IOException ignored) {
+		}
+		return classpathIndex;
+	}
+
+	/**
+	 * Reads the index of a natives jar
+	 * 
+	 * @return An empty index if the jar has none
+	 */
+	static NativesIndex read(SharedZipFile file) {
+		NativesIndex index = new NativesIndex();
+		ZipEntry entry = file.getEntry(PATH);
+		if (entry == null)
+			return index;
+		InputStream input = null;
+		try {
+			input = file.getInputStream(entry);
+			index.read(input, null);
+		} catch (IOException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(input);
+		}
+		return index;
+	}
+
+	/**
+	 * @return null if the library is not indexed for the current platform
+	 */
+	Entry get(String libraryFilename) {
+		return entries.get(libraryFilename);
+	}
+
+	/**
+	 * Reads the entries for the current platform. Entries already read from
+	 * another index take precedence.
+	 * 
+	 * @param indexUrl
+	 *            The URL of the index that resource paths are resolved
+	 *            against or null if they are entries of a natives jar
+	 */
+	private void read(InputStream input, URL indexUrl) throws IOException {
+		String platform = getPlatform(OsInformation.getOs());
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			String[] fields = line.split("\t");
+			if (fields.length != 5 || !fields[0].equals(platform) || entries.containsKey(fields[1]))
+				continue;
+			try {
+				URL url = indexUrl != null ? new URL(indexUrl, "../" + fields[2]) : null;
+				entries.put(fields[1], new Entry(fields[2], url, Long.parseLong(fields[3]), fields[4]));
+			} catch (NumberFormatException ignored) {
+			} catch (MalformedURLException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Formats an index line
+	 */
+	static String toLine(Os os, String libraryFilename, String resourcePath, long size,
+			ChecksumStrategy checksumStrategy, String checksum) {
+		return getPlatform(os) + "\t" + libraryFilename + "\t" + resourcePath + "\t" + size + "\t"
+				+ checksumStrategy.getName() + ":" + checksum + "\n";
+	}
+
+	/**
+	 * Returns the platform a library belongs to from its resource path
+	 * 
+	 * @param resourcePath
+	 *            The path of the library with any compression extension
+	 *            removed
+	 * @return null if the path is not a library
+	 */
+	static Os getOs(String resourcePath) {
+		String path = resourcePath.toLowerCase(Locale.ENGLISH);
+		if (path.startsWith("android/"))
+			return Os.ANDROID;
+		if (path.startsWith("ios/"))
+			return Os.IOS;
+		if (path.endsWith(".dll"))
+			return Os.WINDOWS;
+		if (path.endsWith(".dylib") || path.endsWith(".jnilib"))
+			return Os.MAC;
+		if (path.endsWith(".so"))
+			return Os.UNIX;
+		return null;
+	}
+
+	private static String getPlatform(Os os) {
+		return os.name().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * A library listed in the index
+	 */
+	static class Entry {
+		private final String resourcePath;
+		private final URL url;
+		private final long size;
+		private final String checksum;
+
+		Entry(String resourcePath, URL url, long size, String checksum) {
+			this.resourcePath = resourcePath;
+			this.url = url;
+			this.size = size;
+			this.checksum = checksum;
+		}
+
+		/**
+		 * @return The path of the library (or its compressed payload) within
+		 *         the jar
+		 */
+		String getResourcePath() {
+			return resourcePath;
+		}
+
+		/**
+		 * @return The URL of the library on the classpath or null if it is
+		 *         in a natives jar
+		 */
+		URL getUrl() {
+			return url;
+		}
+
+		/**
+		 * @return The size of the library in bytes after decompression
+		 */
+		long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return The checksum of the library after decompression or null if
+		 *         it was indexed with a different strategy
+		 */
+		String getChecksum(ChecksumStrategy checksumStrategy) {
+			String prefix = checksumStrategy.getName() + ":";
+			return checksum.startsWith(prefix) ? checksum.substring(prefix.length()) : null;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Command line tool that generates the natives index
+ * (<code>META-INF/natives-loader.idx</code>) for a natives jar or a
+ * directory of native resources. With the index on the classpath or in the
+ * natives jar, {@link SharedLibraryLoader} finds libraries without probing
+ * resource paths and knows their checksums without reading them.<br />
+ * <br />
+ * Usage: <code>NativesIndexer [--checksum crc32] source [indexFile]</code>
+ * <br />
+ * <br />
+ * The index file defaults to <code>META-INF/natives-loader.idx</code> within
+ * a source directory and must be given for a source jar. Compressed payloads
+ * are indexed with the size and checksum of the decompressed library.
+ */
+public class NativesIndexer {
+
+	public static void main(String[] args) throws Exception {
+		ChecksumStrategy checksumStrategy = ChecksumStrategy.CRC32;
+		List<String> arguments = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--checksum") && i + 1 < args.length) {
+				checksumStrategy = ChecksumStrategy.fromProperty(args[++i]);
+			} else {
+				arguments.add(args[i]);
+			}
+		}
+		File source = arguments.isEmpty() ? null : new File(arguments.get(0));
+		if (source == null || arguments.size() > 2 || (arguments.size() == 1 && !source.isDirectory())) {
+			System.err.println("Usage: NativesIndexer [--checksum crc32] source [indexFile]");
+			System.exit(1);
+			return;
+		}
+		File indexFile = arguments.size() == 2 ? new File(arguments.get(1)) : new File(source, NativesIndex.PATH);
+
+		Map<String, String> lines = new TreeMap<String, String>();
+		if (source.isDirectory()) {
+			indexDirectory(source, "", checksumStrategy, lines);
+		} else {
+			indexJar(source, checksumStrategy, lines);
+		}
+
+		indexFile.getAbsoluteFile().getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+		try {
+			writer.write(NativesIndex.HEADER + "\n");
+			for (String line : lines.values()) {
+				writer.write(line);
+			}
+		} finally {
+			writer.close();
+		}
+		System.out.println("Indexed " + lines.size() + " libraries in " + indexFile);
+	}
+
+	private static void indexDirectory(File directory, String prefix, ChecksumStrategy checksumStrategy,
+			Map<String, String> lines) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			String resourcePath = prefix + file.getName();
+			if (file.isDirectory()) {
+				indexDirectory(file, resourcePath + "/", checksumStrategy, lines);
+			} else if (isLibrary(resourcePath)) {
+				lines.put(resourcePath, index(resourcePath, new FileInputStream(file), checksumStrategy));
+			}
+		}
+	}
+
+	private static void indexJar(File jar, ChecksumStrategy checksumStrategy, Map<String, String> lines)
+			throws IOException {
+		ZipFile zipFile = new ZipFile(jar);
+		try {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || !isLibrary(entry.getName()))
+					continue;
+				lines.put(entry.getName(), index(entry.getName(), zipFile.getInputStream(entry), checksumStrategy));
+			}
+		} finally {
+			zipFile.close();
+		}
+	}
+
+	private static boolean isLibrary(String resourcePath) {
+		return !resourcePath.startsWith("META-INF/") && NativesIndex.getOs(getLibraryPath(resourcePath)) != null;
+	}
+
+	/**
+	 * @return The resource path with any compression extension removed
+	 */
+	private static String getLibraryPath(String resourcePath) {
+		PayloadCodec codec = PayloadCodec.forPath(resourcePath);
+		if (codec == null)
+			return resourcePath;
+		return resourcePath.substring(0, resourcePath.length() - codec.getExtension().length());
+	}
+
+	/**
+	 * Reads the library and returns its index line. The stream is closed.
+	 */
+	private static String index(String resourcePath, InputStream input, ChecksumStrategy checksumStrategy)
+			throws IOException {
+		String libraryPath = getLibraryPath(resourcePath);
+		PayloadCodec codec = PayloadCodec.forPath(resourcePath);
+		ChecksumStrategy.Hasher hasher = checksumStrategy.newHasher();
+		long size = 0L;
+		ByteBuffer buffer = BufferPool.obtain();
+		try {
+			if (codec != null)
+				input = codec.decode(input);
+			int length;
+			while ((length = input.read(buffer.array())) != -1) {
+				hasher.update(buffer.array(), 0, length);
+				size += length;
+			}
+		} finally {
+			BufferPool.release(buffer);
+			input.close();
+		}
+
+		return NativesIndex.toLine(NativesIndex.getOs(libraryPath), new File(libraryPath).getName(), resourcePath,
+				size, checksumStrategy, hasher.getValue());
+	}
+}
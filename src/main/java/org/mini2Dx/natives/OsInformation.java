@@ -15,6 +15,23 @@
  ******************************************************************************/
 package org.mini2Dx.natives;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
 /**
  * Provides information about the OS that the JVM is running on
  */
@@ -27,8 +44,22 @@ public class OsInformation {
 	private static final boolean IS_64_BIT = System.getProperty("os.arch").equals("amd64")
 			|| System.getProperty("os.arch").equals("x86_64");
 	private static final String ABI = (System.getProperty("sun.arch.abi") != null ? System.getProperty("sun.arch.abi") : "");
+	private static final boolean IS_AARCH64 = System.getProperty("os.arch").equals("aarch64")
+			|| System.getProperty("os.arch").equals("arm64");
+
+	/**
+	 * Auxiliary vector entry types and the aarch64 HWCAP bits for SVE, see
+	 * linux/auxvec.h and asm/hwcap.h
+	 */
+	private static final long AT_NULL = 0L;
+	private static final long AT_HWCAP = 16L;
+	private static final long AT_HWCAP2 = 26L;
+	private static final long HWCAP_SVE = 1L << 22;
+	private static final long HWCAP2_SVE2 = 1L << 1;
 
 	private static Os os;
+	private static Set<String> cpuFeatures;
+	private static List<String> cpuVariants;
 
 	public static Os getOs() {
 		if (os == null) {
@@ -76,6 +107,14 @@ public class OsInformation {
 		return getOs() == Os.UNIX;
 	}
 
+	/**
+	 * @return True if this is a Unix that uses ELF libraries, i.e. Linux but
+	 *         not AIX
+	 */
+	public static boolean isLinux() {
+		return isUnix() && DESKTOP_OS.indexOf("nux") >= 0;
+	}
+
 	public static boolean isAndroid() {
 		return getOs() == Os.ANDROID;
 	}
@@ -95,4 +134,130 @@ public class OsInformation {
 	public static String getAbi() {
 		return ABI;
 	}
+
+	/**
+	 * Returns the CPU feature flags reported by Linux in /proc/cpuinfo (e.g.
+	 * avx2 on x86_64 or sve on aarch64), supplemented on aarch64 by the
+	 * HWCAP bits in /proc/self/auxv
+	 * 
+	 * @return An empty set on other operating systems or if the features
+	 *         cannot be read
+	 */
+	public static synchronized Set<String> getCpuFeatures() {
+		if (cpuFeatures == null) {
+			cpuFeatures = Collections.unmodifiableSet(determineCpuFeatures());
+		}
+		return cpuFeatures;
+	}
+
+	/**
+	 * Returns the optimised library variants the CPU supports, best first.
+	 * See {@link SharedLibraryLoader#mapLibraryName(String, String)}.
+	 * <ul>
+	 * <li><strong>x86_64:</strong> avx512 (avx512f, avx512bw, avx512dq and
+	 * avx512vl), avx2 (avx2, fma and bmi2)</li>
+	 * <li><strong>aarch64:</strong> sve2, sve</li>
+	 * </ul>
+	 * 
+	 * @return An empty list if no variants are supported
+	 */
+	public static synchronized List<String> getCpuVariants() {
+		if (cpuVariants == null) {
+			Set<String> features = getCpuFeatures();
+			List<String> variants = new ArrayList<String>();
+			if (IS_64_BIT) {
+				if (features.containsAll(Arrays.asList("avx512f", "avx512bw", "avx512dq", "avx512vl")))
+					variants.add("avx512");
+				if (features.containsAll(Arrays.asList("avx2", "fma", "bmi2")))
+					variants.add("avx2");
+			} else if (IS_AARCH64) {
+				if (features.contains("sve2"))
+					variants.add("sve2");
+				if (features.contains("sve"))
+					variants.add("sve");
+			}
+			cpuVariants = Collections.unmodifiableList(variants);
+		}
+		return cpuVariants;
+	}
+
+	/**
+	 * Returns every optimised library variant for this architecture, whether
+	 * or not the CPU supports it, best first. See {@link #getCpuVariants()}.
+	 */
+	static List<String> getKnownCpuVariants() {
+		if (IS_64_BIT)
+			return Arrays.asList("avx512", "avx2");
+		if (IS_AARCH64)
+			return Arrays.asList("sve2", "sve");
+		return Collections.emptyList();
+	}
+
+	private static Set<String> determineCpuFeatures() {
+		Set<String> features = new HashSet<String>();
+		if (getOs() != Os.UNIX)
+			return features;
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader("/proc/cpuinfo"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int separator = line.indexOf(':');
+				if (separator < 0)
+					continue;
+				String key = line.substring(0, separator).trim();
+				if (!key.equals("flags") && !key.equals("Features"))
+					continue;
+				for (String feature : line.substring(separator + 1).trim().split("\\s+")) {
+					features.add(feature.toLowerCase(Locale.ENGLISH));
+				}
+				break;
+			}
+		} catch (IOException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(reader);
+		}
+
+		if (IS_AARCH64) {
+			readAuxvFeatures(features);
+		}
+		return features;
+	}
+
+	/**
+	 * Adds features from the HWCAP entries of the auxiliary vector, which is
+	 * readable where /proc/cpuinfo is restricted or incomplete
+	 */
+	private static void readAuxvFeatures(Set<String> features) {
+		File auxv = new File("/proc/self/auxv");
+		if (!auxv.canRead())
+			return;
+		InputStream input = null;
+		try {
+			input = new FileInputStream(auxv);
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[512];
+			int length;
+			while ((length = input.read(buffer)) != -1) {
+				output.write(buffer, 0, length);
+			}
+
+			// Pairs of 64-bit type and value words on aarch64
+			ByteBuffer entries = ByteBuffer.wrap(output.toByteArray()).order(ByteOrder.nativeOrder());
+			while (entries.remaining() >= 16) {
+				long type = entries.getLong();
+				long value = entries.getLong();
+				if (type == AT_NULL)
+					break;
+				if (type == AT_HWCAP && (value & HWCAP_SVE) != 0)
+					features.add("sve");
+				if (type == AT_HWCAP2 && (value & HWCAP2_SVE2) != 0)
+					features.add("sve2");
+			}
+		} catch (IOException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(input);
+		}
+	}
 }
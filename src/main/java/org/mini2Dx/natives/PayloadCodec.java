@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Compression formats supported for library payloads, e.g. libfoo64.so.xz.
+ * Decoders are created reflectively so formats other than gzip only need
+ * their library on the classpath.
+ */
+enum PayloadCodec {
+	/**
+	 * Gzip, supported by the JDK
+	 */
+	GZIP(".gz", "java.util.zip.GZIPInputStream"),
+	/**
+	 * XZ, requires org.tukaani:xz
+	 */
+	XZ(".xz", "org.tukaani.xz.XZInputStream"),
+	/**
+	 * LZ4 frame format, requires org.lz4:lz4-java
+	 */
+	LZ4(".lz4", "net.jpountz.lz4.LZ4FrameInputStream"),
+	/**
+	 * Zstandard, requires com.github.luben:zstd-jni
+	 */
+	ZSTD(".zst", "com.github.luben.zstd.ZstdInputStream");
+
+	private final String extension;
+	private final String decoderClassName;
+	private volatile Boolean available;
+
+	private PayloadCodec(String extension, String decoderClassName) {
+		this.extension = extension;
+		this.decoderClassName = decoderClassName;
+	}
+
+	/**
+	 * @return The codec for the file extension of the path or null if none
+	 *         match
+	 */
+	static PayloadCodec forPath(String path) {
+		for (PayloadCodec codec : values()) {
+			if (path.endsWith(codec.extension))
+				return codec;
+		}
+		return null;
+	}
+
+	/**
+	 * @return True if the decoder is on the classpath
+	 */
+	boolean isAvailable() {
+		if (available == null) {
+			try {
+				Class.forName(decoderClassName);
+				available = Boolean.TRUE;
+			} catch (Throwable ex) {
+				available = Boolean.FALSE;
+			}
+		}
+		return available.booleanValue();
+	}
+
+	/**
+	 * Wraps the stream to decompress it. The compressed stream is closed when
+	 * the returned stream is closed.
+	 */
+	InputStream decode(InputStream input) throws IOException {
+		try {
+			return (InputStream) Class.forName(decoderClassName).getConstructor(InputStream.class)
+					.newInstance(input);
+		} catch (InvocationTargetException ex) {
+			if (ex.getCause() instanceof IOException)
+				throw (IOException) ex.getCause();
+			throw new IOException("Couldn't create " + decoderClassName, ex.getCause());
+		} catch (Exception ex) {
+			throw new IOException("Couldn't create " + decoderClassName, ex);
+		}
+	}
+
+	String getExtension() {
+		return extension;
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * A directory of libraries extracted and verified ahead of time by
+ * {@link PreExtractor}, e.g. when building a container image. Libraries
+ * listed in its manifest are loaded directly without extraction or
+ * checksumming, so the directory may be read-only. Each library is recorded
+ * against the natives jar it came from with the checksum from the natives
+ * index and the CRC from the zip central directory, so that a stale library
+ * is not loaded after the jar is upgraded.
+ */
+class PreExtractedLibraries {
+	/**
+	 * System property for the directory of pre-extracted libraries
+	 */
+	static final String DIRECTORY_PROPERTY = "mini2Dx.natives.preExtractedDir";
+	/**
+	 * Environment variable for the directory of pre-extracted libraries, used
+	 * if the system property is not set
+	 */
+	static final String DIRECTORY_ENVIRONMENT_VARIABLE = "NATIVES_LOADER_DIR";
+	static final String MANIFEST_FILE_NAME = "natives-loader.manifest";
+	/**
+	 * The source of libraries read from the classpath rather than a natives
+	 * jar
+	 */
+	static final String CLASSPATH = "-";
+
+	private static PreExtractedLibraries instance;
+
+	private final File directory;
+	private final Properties manifest = new Properties();
+
+	PreExtractedLibraries(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the configured directory of pre-extracted libraries, reading its
+	 * manifest the first time
+	 * 
+	 * @return null if none is configured or it has no manifest
+	 */
+	static synchronized PreExtractedLibraries getInstance() {
+		if (instance == null) {
+			String path = System.getProperty(DIRECTORY_PROPERTY);
+			if (path == null)
+				path = System.getenv(DIRECTORY_ENVIRONMENT_VARIABLE);
+			instance = new PreExtractedLibraries(path != null ? new File(path) : null);
+			instance.read();
+		}
+		return instance.manifest.isEmpty() ? null : instance;
+	}
+
+	/**
+	 * Returns the pre-extracted file if the source still matches what was
+	 * extracted. The source is compared by its zip CRC, or if it is not in a
+	 * zip by its checksum in the natives index, without reading it.
+	 * 
+	 * @param source
+	 *            The name of the natives jar or {@link #CLASSPATH}, see
+	 *            {@link #getSource(String)}
+	 * @param entryCrc
+	 *            The CRC of the source entry in the zip central directory or
+	 *            -1 if unknown
+	 * @param indexed
+	 *            The natives index entry for the library or null
+	 * @return null if the library is not listed in the manifest for the
+	 *         source, has changed or cannot be compared, or its file is
+	 *         missing
+	 */
+	File find(String source, String libraryFilename, long entryCrc, NativesIndex.Entry indexed) {
+		String key = source + "!" + libraryFilename;
+		String path = manifest.getProperty(key + ".path");
+		if (path == null)
+			return null;
+		if (entryCrc != -1L) {
+			if (!Long.toString(entryCrc, 16).equals(manifest.getProperty(key + ".entryCrc")))
+				return null;
+		} else {
+			String checksum = manifest.getProperty(key + ".checksum", "");
+			ChecksumStrategy checksumStrategy = ChecksumStrategy.fromProperty(checksum.split(":")[0]);
+			if (indexed == null || !checksum.equals(checksumStrategy.getName() + ":"
+					+ indexed.getChecksum(checksumStrategy)))
+				return null;
+		}
+		File file = new File(directory, path);
+		return file.isFile() ? file : null;
+	}
+
+	/**
+	 * Adds a library to the manifest
+	 * 
+	 * @param entryCrc
+	 *            The CRC of the source entry in the zip central directory or
+	 *            -1 if it is not in a zip
+	 */
+	void add(String source, String libraryFilename, File file, ChecksumStrategy checksumStrategy, String checksum,
+			long entryCrc) {
+		String key = source + "!" + libraryFilename;
+		String path = directory.getAbsoluteFile().toURI().relativize(file.getAbsoluteFile().toURI()).getPath();
+		manifest.setProperty(key + ".path", path);
+		manifest.setProperty(key + ".checksum", checksumStrategy.getName() + ":" + checksum);
+		if (entryCrc != -1L)
+			manifest.setProperty(key + ".entryCrc", Long.toString(entryCrc, 16));
+	}
+
+	/**
+	 * @return The name of the natives jar, so that the directory still
+	 *         matches when the jar is moved, or {@link #CLASSPATH}
+	 */
+	static String getSource(String nativesJar) {
+		return nativesJar != null ? new File(nativesJar).getName() : CLASSPATH;
+	}
+
+	void write() throws IOException {
+		OutputStream output = new FileOutputStream(new File(directory, MANIFEST_FILE_NAME));
+		try {
+			manifest.store(output, "natives-loader pre-extracted libraries");
+		} finally {
+			output.close();
+		}
+	}
+
+	private void read() {
+		if (directory == null)
+			return;
+		File manifestFile = new File(directory, MANIFEST_FILE_NAME);
+		if (!manifestFile.isFile())
+			return;
+		InputStream input = null;
+		try {
+			input = new FileInputStream(manifestFile);
+			manifest.load(input);
+		} catch (IOException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(input);
+		}
+	}
+}
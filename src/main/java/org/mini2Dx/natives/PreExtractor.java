@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line tool that extracts and verifies libraries into a directory
+ * ahead of time, e.g. when building a container image. Point
+ * {@link SharedLibraryLoader} at the directory with the
+ * <code>mini2Dx.natives.preExtractedDir</code> system property or the
+ * <code>NATIVES_LOADER_DIR</code> environment variable and the libraries are
+ * loaded without extraction or checksumming, as long as they are loaded from a
+ * natives jar with the same name (or the classpath if no jar was given) and
+ * are unchanged in it.<br />
+ * <br />
+ * Usage: <code>PreExtractor [--jar natives.jar] [--checksum crc32] outputDir
+ * library...</code><br />
+ * <br />
+ * Library names are platform independent, see
+ * {@link SharedLibraryLoader#mapLibraryName(String)}. Run the tool on the
+ * platform the libraries will be loaded on. The baseline library and every
+ * CPU variant of it in the natives jar are extracted, so that the best
+ * variant can be chosen where the directory is deployed, see
+ * {@link OsInformation#getCpuVariants()}.
+ */
+public class PreExtractor {
+
+	public static void main(String[] args) throws Exception {
+		String nativesJar = null;
+		String checksum = null;
+		List<String> arguments = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--jar") && i + 1 < args.length) {
+				nativesJar = args[++i];
+			} else if (args[i].equals("--checksum") && i + 1 < args.length) {
+				checksum = args[++i];
+			} else {
+				arguments.add(args[i]);
+			}
+		}
+		if (arguments.size() < 2) {
+			System.err.println("Usage: PreExtractor [--jar natives.jar] [--checksum crc32] outputDir library...");
+			System.exit(1);
+			return;
+		}
+
+		SharedLibraryLoader loader = nativesJar != null ? new SharedLibraryLoader(nativesJar)
+				: new SharedLibraryLoader();
+		if (checksum != null)
+			loader.setChecksumStrategy(ChecksumStrategy.fromProperty(checksum));
+
+		File outputDir = new File(arguments.get(0));
+		outputDir.mkdirs();
+		PreExtractedLibraries libraries = new PreExtractedLibraries(outputDir);
+		for (String libraryName : arguments.subList(1, arguments.size())) {
+			List<String> libraryFilenames = new ArrayList<String>();
+			libraryFilenames.add(loader.mapLibraryName(libraryName));
+			for (String cpuVariant : OsInformation.getKnownCpuVariants()) {
+				String variantFilename = loader.mapLibraryName(libraryName, cpuVariant);
+				if (loader.isBundled(variantFilename))
+					libraryFilenames.add(variantFilename);
+			}
+			for (String libraryFilename : libraryFilenames) {
+				String sourceChecksum = loader.preExtract(libraryFilename, outputDir, libraries);
+				System.out.println(
+						libraryFilename + " " + loader.getChecksumStrategy().getName() + ":" + sourceChecksum);
+			}
+		}
+		libraries.write();
+	}
+}
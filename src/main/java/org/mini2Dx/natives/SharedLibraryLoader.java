@@ -15,19 +15,49 @@
  ******************************************************************************/
 package org.mini2Dx.natives;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.zip.CRC32;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * Loads correct native libraries based on the current OS. Note that iOS
@@ -37,8 +67,79 @@ import java.util.zip.ZipFile;
  */
 public class SharedLibraryLoader {
 	private static final Map<String, File> LOADED_LIBRARIES = new ConcurrentHashMap<String, File>();
+	private static final ConcurrentMap<String, ReentrantLock> LOAD_LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+	private static final ConcurrentMap<String, Future<File>> IN_FLIGHT_LIBRARIES = new ConcurrentHashMap<String, Future<File>>();
+	/**
+	 * Libraries found to be missing by {@link #tryLoad(String)}, keyed by
+	 * natives jar and library name
+	 */
+	private static final ConcurrentMap<String, NativeLibraryNotFoundException> MISSING_LIBRARIES = new ConcurrentHashMap<String, NativeLibraryNotFoundException>();
+	private static final NativeLoadListeners LISTENERS = new NativeLoadListeners();
+	/**
+	 * The SONAMEs of loaded ELF libraries, which satisfy the DT_NEEDED
+	 * entries of libraries loaded after them
+	 */
+	private static final ConcurrentMap<String, File> LOADED_SONAMES = new ConcurrentHashMap<String, File>();
+	/**
+	 * Libraries whose dependencies are being loaded on the current thread,
+	 * to stop at dependency cycles
+	 */
+	private static final ThreadLocal<Set<String>> LOADING_DEPENDENCIES = new ThreadLocal<Set<String>>() {
+		@Override
+		protected Set<String> initialValue() {
+			return new HashSet<String>();
+		}
+	};
+
+	/**
+	 * System property to set to true to sync extracted files to disk before
+	 * they are moved into place
+	 */
+	public static final String FSYNC_PROPERTY = "mini2Dx.natives.fsync";
+	/**
+	 * System property to set the initial {@link VerificationMode}, e.g.
+	 * <code>existence</code>
+	 */
+	public static final String VERIFICATION_MODE_PROPERTY = "mini2Dx.natives.verification";
+	/**
+	 * System property to set the default {@link ChecksumStrategy} by name,
+	 * e.g. <code>xxhash64</code>
+	 */
+	public static final String CHECKSUM_PROPERTY = "mini2Dx.natives.checksum";
+
+	private static Executor asyncExecutor;
+	private static volatile VerificationMode verificationMode = VerificationMode
+			.fromProperty(System.getProperty(VERIFICATION_MODE_PROPERTY));
+	private static volatile ExtractionLocation extractionLocation;
+	private static final StartupProfile STARTUP_PROFILE;
+
+	static {
+		FlightRecorderSupport.install();
+		if (Boolean.getBoolean(NativeLoaderStatistics.ENABLED_PROPERTY)) {
+			try {
+				NativeLoaderStatistics.register();
+			} catch (RuntimeException e) {
+				// Statistics are optional, loading must still work without them
+			}
+		}
+		STARTUP_PROFILE = StartupProfile.install();
+		if (STARTUP_PROFILE != null)
+			STARTUP_PROFILE.preload();
+	}
 
 	private String nativesJar;
+	private volatile NativesIndex nativesIndex;
+	/**
+	 * Where each file was found in the natives jar or on the classpath, so
+	 * that it is only looked up once, see {@link #resolvePayload(String)}
+	 */
+	private final ConcurrentMap<String, Payload> payloads = new ConcurrentHashMap<String, Payload>();
+	/**
+	 * The filename selected for each library, see
+	 * {@link #selectLibraryFilename(String)}
+	 */
+	private final ConcurrentMap<String, String> libraryFilenames = new ConcurrentHashMap<String, String>();
+	private ChecksumStrategy checksumStrategy = ChecksumStrategy.fromProperty(System.getProperty(CHECKSUM_PROPERTY));
 
 	public SharedLibraryLoader() {
 	}
@@ -53,28 +154,88 @@ public class SharedLibraryLoader {
 		this.nativesJar = nativesJar;
 	}
 
-	/** Returns a CRC of the remaining bytes in the stream. */
+	/** Returns a CRC of the remaining bytes in the stream. The stream is closed. */
 	public String crc(InputStream input) {
 		if (input == null)
 			throw new IllegalArgumentException("input cannot be null.");
-		CRC32 crc = new CRC32();
-		byte[] buffer = new byte[4096];
+		ChecksumStrategy.Hasher hasher = ChecksumStrategy.CRC32.newHasher();
+		checksum(input, hasher, null);
+		return hasher.getValue();
+	}
+
+	/**
+	 * Updates the hasher with the remaining bytes in the stream and closes it
+	 * 
+	 * @param header
+	 *            Filled with the first bytes of the stream if not null
+	 * @return The number of bytes read
+	 */
+	private static long checksum(InputStream input, ChecksumStrategy.Hasher hasher, byte[] header) {
+		long bytes = 0L;
+		ByteBuffer buffer = BufferPool.obtain();
 		try {
 			while (true) {
-				int length = input.read(buffer);
+				int length = input.read(buffer.array());
 				if (length == -1)
 					break;
-				crc.update(buffer, 0, length);
-			}
-		} catch (Exception ex) {
-			if (input != null) {
-				try {
-					input.close();
-				} catch (Exception e) {
+				hasher.update(buffer.array(), 0, length);
+				if (header != null && bytes < header.length) {
+					System.arraycopy(buffer.array(), 0, header, (int) bytes,
+							(int) Math.min(length, header.length - bytes));
 				}
+				bytes += length;
 			}
+		} catch (Exception ignored) {
+		} finally {
+			BufferPool.release(buffer);
+			closeQuietly(input);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the checksum of the file, read through a {@link FileChannel}
+	 * 
+	 * @return null if the file could not be read
+	 */
+	private String checksum(File file) {
+		FileChannel channel = null;
+		ByteBuffer buffer = BufferPool.obtain();
+		try {
+			channel = new FileInputStream(file).getChannel();
+			ChecksumStrategy.Hasher hasher = checksumStrategy.newHasher();
+			while (channel.read(buffer) != -1) {
+				hasher.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			return hasher.getValue();
+		} catch (IOException ex) {
+			return null;
+		} finally {
+			BufferPool.release(buffer);
+			closeQuietly(channel);
 		}
-		return Long.toString(crc.getValue(), 16);
+	}
+
+	/**
+	 * Sets the checksum used to name extraction directories and verify
+	 * extracted files. Defaults to {@link ChecksumStrategy#CRC32}.
+	 * 
+	 * @param checksumStrategy
+	 *            The {@link ChecksumStrategy} to use
+	 * @throws IllegalArgumentException
+	 *             If the strategy is not available on this JVM
+	 */
+	public void setChecksumStrategy(ChecksumStrategy checksumStrategy) {
+		if (checksumStrategy == null)
+			throw new IllegalArgumentException("checksumStrategy cannot be null.");
+		if (!checksumStrategy.isAvailable())
+			throw new IllegalArgumentException(checksumStrategy + " checksums are not available on this JVM.");
+		this.checksumStrategy = checksumStrategy;
+	}
+
+	public ChecksumStrategy getChecksumStrategy() {
+		return checksumStrategy;
 	}
 
 	/**
@@ -107,9 +268,54 @@ public class SharedLibraryLoader {
 		return libraryName;
 	}
 
+	/**
+	 * Maps a platform independent library name to the filename of a variant
+	 * optimised for a CPU feature, e.g. libyoga64-avx2.so for
+	 * {@link #mapLibraryName(String)} libyoga64.so and variant avx2
+	 * 
+	 * @param libraryName
+	 *            The name of the library to load
+	 * @param cpuVariant
+	 *            The variant, see {@link OsInformation#getCpuVariants()}
+	 */
+	public String mapLibraryName(String libraryName, String cpuVariant) {
+		String libraryFilename = mapLibraryName(libraryName);
+		int extension = libraryFilename.lastIndexOf('.');
+		if (extension < 0)
+			return libraryFilename + "-" + cpuVariant;
+		return libraryFilename.substring(0, extension) + "-" + cpuVariant + libraryFilename.substring(extension);
+	}
+
+	/**
+	 * Returns the filename of the best variant of the library present for
+	 * this CPU, see {@link OsInformation#getCpuVariants()}, or the baseline
+	 * filename if no variant is present. The variant is only looked for the
+	 * first time, callers should hold the natives jar open while it is, see
+	 * {@link #acquireNativesJar()}.
+	 */
+	String selectLibraryFilename(String libraryName) {
+		if (OsInformation.isAndroid() || OsInformation.isIOS())
+			return mapLibraryName(libraryName);
+		String libraryFilename = libraryFilenames.get(libraryName);
+		if (libraryFilename != null)
+			return libraryFilename;
+		libraryFilename = mapLibraryName(libraryName);
+		for (String cpuVariant : OsInformation.getCpuVariants()) {
+			String variantFilename = mapLibraryName(libraryName, cpuVariant);
+			if (isAvailable(variantFilename)) {
+				libraryFilename = variantFilename;
+				break;
+			}
+		}
+		libraryFilenames.put(libraryName, libraryFilename);
+		return libraryFilename;
+	}
+
 	/**
 	 * Loads a shared library for the platform the application is running on.
-	 * Autodetects the appropriate libary filename to load.
+	 * Autodetects the appropriate libary filename to load, preferring the
+	 * best variant present for the CPU. See
+	 * {@link #mapLibraryName(String, String)}.
 	 * 
 	 * @param libraryName
 	 *            The platform independent library name. See
@@ -119,7 +325,19 @@ public class SharedLibraryLoader {
 	 *         and Android it is tied to the app)
 	 */
 	public File load(String libraryName) {
-		return load(libraryName, mapLibraryName(libraryName));
+		if (isLoaded(libraryName)) {
+			// Libraries the profile preloaded must still be recorded
+			if (STARTUP_PROFILE != null)
+				STARTUP_PROFILE.requested(nativesJar, checksumStrategy, libraryName, null);
+			return LOADED_LIBRARIES.get(libraryName);
+		}
+		SharedZipFile jar = acquireNativesJar();
+		try {
+			return load(libraryName, selectLibraryFilename(libraryName));
+		} finally {
+			if (jar != null)
+				jar.release();
+		}
 	}
 
 	/**
@@ -140,27 +358,524 @@ public class SharedLibraryLoader {
 		if (OsInformation.isIOS())
 			return null;
 
-		synchronized (SharedLibraryLoader.class) {
-			if (isLoaded(libraryName))
+		if (STARTUP_PROFILE != null)
+			STARTUP_PROFILE.requested(nativesJar, checksumStrategy, libraryName, libraryFilename);
+		if (isLoaded(libraryName))
+			return LOADED_LIBRARIES.get(libraryName);
+
+		ReentrantLock lock = getLock(libraryName);
+		long startTime = System.nanoTime();
+		lock.lock();
+		LISTENERS.onPhase(libraryFilename, NativeLoadPhase.LOCK_WAIT, null, System.nanoTime() - startTime, 0L);
+		SharedZipFile jar = null;
+		try {
+			if (isLoaded(libraryName) || isLoadedDependency(libraryName, libraryFilename))
 				return LOADED_LIBRARIES.get(libraryName);
+			jar = acquireNativesJar();
+			if (OsInformation.isAndroid()) {
+				System.loadLibrary(libraryFilename);
+				setLoaded(libraryName, null);
+			} else {
+				setLoaded(libraryName, loadFile(libraryFilename));
+			}
+			LISTENERS.onLoaded(libraryName, LOADED_LIBRARIES.get(libraryName), System.nanoTime() - startTime);
+		} catch (Throwable ex) {
+			LISTENERS.onFailed(libraryName, ex, System.nanoTime() - startTime);
+			throw loadFailure(libraryFilename, ex);
+		} finally {
+			if (jar != null)
+				jar.release();
+			lock.unlock();
+		}
+		return LOADED_LIBRARIES.get(libraryName);
+	}
+
+	/**
+	 * Loads a shared library if it is present without throwing, e.g. for
+	 * optional libraries. Libraries that are not in the natives jar, on the
+	 * classpath or at java.library.path are remembered as missing so repeated
+	 * attempts return immediately.
+	 * 
+	 * @param libraryName
+	 *            The platform independent library name. See
+	 *            {@link #mapLibraryName(String)}
+	 * @return The result of loading the library
+	 */
+	public NativeLoadResult tryLoad(String libraryName) {
+		if (isLoaded(libraryName)) {
+			if (STARTUP_PROFILE != null)
+				STARTUP_PROFILE.requested(nativesJar, checksumStrategy, libraryName, null);
+			return new NativeLoadResult(libraryName, LOADED_LIBRARIES.get(libraryName), null);
+		}
+		String missingKey = nativesJar + "!" + libraryName;
+		NativeLibraryNotFoundException missing = MISSING_LIBRARIES.get(missingKey);
+		if (missing != null)
+			return new NativeLoadResult(libraryName, null, missing);
+		SharedZipFile jar = acquireNativesJar();
+		try {
+			String libraryFilename = selectLibraryFilename(libraryName);
+			if (!OsInformation.isIOS() && !OsInformation.isAndroid() && !isAvailable(libraryFilename)) {
+				missing = new NativeLibraryNotFoundException(libraryFilename);
+				MISSING_LIBRARIES.putIfAbsent(missingKey, missing);
+				return new NativeLoadResult(libraryName, null, missing);
+			}
+			return new NativeLoadResult(libraryName, load(libraryName, libraryFilename), null);
+		} catch (Throwable ex) {
+			return new NativeLoadResult(libraryName, null, ex);
+		} finally {
+			if (jar != null)
+				jar.release();
+		}
+	}
+
+	/**
+	 * Returns a handle that loads a shared library the first time
+	 * {@link NativeLibrary#ensureLoaded()} is called, so that libraries only
+	 * needed on rare code paths are not extracted at startup
+	 * 
+	 * @param libraryName
+	 *            The platform independent library name. See
+	 *            {@link #mapLibraryName(String)}
+	 * @return A handle to the library
+	 */
+	public NativeLibrary register(String libraryName) {
+		return new NativeLibrary(this, libraryName);
+	}
+
+	/**
+	 * Loads a shared library in the background on a shared pool of daemon
+	 * threads. Concurrent requests for the same library share the same
+	 * {@link Future}.
+	 * 
+	 * @param libraryName
+	 *            The platform independent library name. See
+	 *            {@link #mapLibraryName(String)}
+	 * @return A {@link Future} for the result of {@link #load(String)}
+	 */
+	public Future<File> loadAsync(String libraryName) {
+		return loadAsync(libraryName, getAsyncExecutor());
+	}
+
+	/**
+	 * Loads a shared library in the background using the given
+	 * {@link Executor}. Concurrent requests for the same library share the
+	 * same {@link Future}. A failed load is retried by the next request.
+	 * 
+	 * @param libraryName
+	 *            The platform independent library name. See
+	 *            {@link #mapLibraryName(String)}
+	 * @param executor
+	 *            The {@link Executor} to extract and load the library on
+	 * @return A {@link Future} for the result of {@link #load(String)}
+	 */
+	public Future<File> loadAsync(final String libraryName, Executor executor) {
+		Future<File> inFlight = IN_FLIGHT_LIBRARIES.get(libraryName);
+		if (inFlight != null && !hasFailed(inFlight))
+			return inFlight;
+		if (inFlight != null)
+			IN_FLIGHT_LIBRARIES.remove(libraryName, inFlight);
+
+		FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				return load(libraryName);
+			}
+		}) {
+			@Override
+			protected void done() {
+				// Failures are kept for awaitLoaded to report
+				if (!hasFailed(this))
+					IN_FLIGHT_LIBRARIES.remove(libraryName, this);
+			}
+		};
+		if (isLoaded(libraryName)) {
+			task.run();
+			return task;
+		}
+		inFlight = IN_FLIGHT_LIBRARIES.putIfAbsent(libraryName, task);
+		if (inFlight != null)
+			return inFlight;
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			IN_FLIGHT_LIBRARIES.remove(libraryName, task);
+			throw ex;
+		}
+		return task;
+	}
+
+	/**
+	 * Waits for a library being loaded by another thread, e.g. via
+	 * {@link #loadAsync(String)}
+	 * 
+	 * @param libraryName
+	 *            The platform independent library name
+	 * @param timeout
+	 *            The maximum time to wait
+	 * @param unit
+	 *            The unit of the timeout
+	 * @return The {@link File} the library was loaded from, see
+	 *         {@link #load(String)}
+	 * @throws TimeoutException
+	 *             If the library did not finish loading within the timeout
+	 * @throws IllegalStateException
+	 *             If the library is not loaded and is not being loaded
+	 * @throws RuntimeException
+	 *             If the library failed to load, including a background load
+	 *             that failed before this was called
+	 */
+	public static File awaitLoaded(String libraryName, long timeout, TimeUnit unit)
+			throws InterruptedException, TimeoutException {
+		if (isLoaded(libraryName))
+			return LOADED_LIBRARIES.get(libraryName);
+
+		Future<File> inFlight = IN_FLIGHT_LIBRARIES.get(libraryName);
+		if (inFlight != null) {
 			try {
-				if (OsInformation.isAndroid()) {
-					System.loadLibrary(libraryFilename);
-					setLoaded(libraryName, null);
-				} else {
-					setLoaded(libraryName, loadFile(libraryFilename));
+				return inFlight.get(timeout, unit);
+			} catch (ExecutionException ex) {
+				IN_FLIGHT_LIBRARIES.remove(libraryName, inFlight);
+				if (ex.getCause() instanceof RuntimeException)
+					throw (RuntimeException) ex.getCause();
+				throw new RuntimeException(ex.getCause());
+			}
+		}
+
+		// Wait for any synchronous load in progress.
+		ReentrantLock lock = getLock(libraryName);
+		if (!lock.tryLock(timeout, unit))
+			throw new TimeoutException("Timed out waiting for shared library '" + libraryName + "'");
+		lock.unlock();
+		if (isLoaded(libraryName))
+			return LOADED_LIBRARIES.get(libraryName);
+		throw new IllegalStateException("Shared library '" + libraryName + "' is not loaded");
+	}
+
+	/**
+	 * @return True if the future completed by throwing an exception
+	 */
+	private static boolean hasFailed(Future<File> future) {
+		if (!future.isDone() || future.isCancelled())
+			return false;
+		try {
+			future.get();
+			return false;
+		} catch (ExecutionException ex) {
+			return true;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static synchronized Executor getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
+					Runtime.getRuntime().availableProcessors(), 30L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("natives-loader-async"));
+			executor.allowCoreThreadTimeOut(true);
+			asyncExecutor = executor;
+		}
+		return asyncExecutor;
+	}
+
+	/**
+	 * Loads multiple shared libraries for the platform the application is
+	 * running on. Extraction and checksumming run in parallel, the libraries
+	 * are then loaded in the order given. All libraries are attempted even if
+	 * some fail.
+	 * 
+	 * @param libraryNames
+	 *            The platform independent library names in the order they
+	 *            should be loaded. See {@link #mapLibraryName(String)}
+	 * @return The library names mapped to the {@link File} each library was
+	 *         loaded from, see {@link #load(String)}
+	 * @throws RuntimeException
+	 *             If any library failed to load, with each failure attached
+	 *             as a suppressed exception
+	 */
+	public Map<String, File> loadAll(String... libraryNames) {
+		return loadAll(Arrays.asList(libraryNames));
+	}
+
+	/**
+	 * Loads multiple shared libraries for the platform the application is
+	 * running on. Extraction and checksumming run in parallel, the libraries
+	 * are then loaded in iteration order. All libraries are attempted even if
+	 * some fail.
+	 * 
+	 * @param libraryNames
+	 *            The platform independent library names in the order they
+	 *            should be loaded. See {@link #mapLibraryName(String)}
+	 * @return The library names mapped to the {@link File} each library was
+	 *         loaded from, see {@link #load(String)}
+	 * @throws RuntimeException
+	 *             If any library failed to load, with each failure attached
+	 *             as a suppressed exception
+	 */
+	public Map<String, File> loadAll(Collection<String> libraryNames) {
+		SharedZipFile jar = acquireNativesJar();
+		try {
+			Map<String, String> libraryFilenames = new LinkedHashMap<String, String>();
+			for (String libraryName : libraryNames) {
+				libraryFilenames.put(libraryName, selectLibraryFilename(libraryName));
+			}
+			return loadAll(libraryFilenames);
+		} finally {
+			if (jar != null)
+				jar.release();
+		}
+	}
+
+	/**
+	 * Loads multiple shared libraries, see {@link #loadAll(Collection)}
+	 * 
+	 * @param libraryFilenames
+	 *            The platform independent library names mapped to the
+	 *            filename for each library on this OS
+	 */
+	Map<String, File> loadAll(Map<String, String> libraryFilenames) {
+		Map<String, File> result = new LinkedHashMap<String, File>();
+		List<PreparedLibrary> libraries = new ArrayList<PreparedLibrary>();
+		for (Map.Entry<String, String> entry : libraryFilenames.entrySet()) {
+			if (STARTUP_PROFILE != null)
+				STARTUP_PROFILE.requested(nativesJar, checksumStrategy, entry.getKey(), entry.getValue());
+			libraries.add(new PreparedLibrary(entry.getKey(), entry.getValue()));
+		}
+		List<Throwable> failures = new ArrayList<Throwable>();
+		SharedZipFile jar = acquireNativesJar();
+		try {
+			if (!OsInformation.isIOS() && !OsInformation.isAndroid()) {
+				prepareAll(libraries);
+			}
+			for (PreparedLibrary library : libraries) {
+				try {
+					result.put(library.libraryName, load(library));
+				} catch (Throwable ex) {
+					failures.add(ex);
 				}
-			} catch (Throwable ex) {
-				throw new RuntimeException(
-						"Couldn't load shared library '" + libraryFilename + "' for target: "
-								+ System.getProperty("os.name") + (OsInformation.is64Bit() ? ", 64-bit" : ", 32-bit"),
-						ex);
 			}
+		} finally {
+			if (jar != null)
+				jar.release();
 		}
-		return LOADED_LIBRARIES.get(libraryName);
+		if (!failures.isEmpty()) {
+			StringBuilder message = new StringBuilder("Couldn't load " + failures.size() + " shared libraries:");
+			for (Throwable failure : failures) {
+				message.append("\n").append(failure.getMessage());
+			}
+			RuntimeException ex = new RuntimeException(message.toString());
+			for (Throwable failure : failures) {
+				ex.addSuppressed(failure);
+			}
+			throw ex;
+		}
+		return result;
+	}
+
+	/**
+	 * Extracts and checksums the libraries in parallel. Failures are ignored
+	 * here and reported when the library is loaded.
+	 */
+	private void prepareAll(List<PreparedLibrary> libraries) {
+		int threads = Math.min(libraries.size(), Runtime.getRuntime().availableProcessors());
+		if (threads <= 1) {
+			for (PreparedLibrary library : libraries) {
+				prepare(library);
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new DaemonThreadFactory("natives-loader-extract"));
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final PreparedLibrary library : libraries) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						prepare(library);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException ignored) {
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Extracts the library to the preferred location, or finds the previously
+	 * extracted file in the {@link ExtractionLedger}
+	 */
+	private void prepare(PreparedLibrary library) {
+		if (isLoaded(library.libraryName) || isLoaded(library.libraryFilename))
+			return;
+		try {
+			library.file = findPreExtracted(library.libraryFilename);
+			if (library.file != null)
+				return;
+			library.sourceKey = lookup(library.libraryFilename);
+			File file = ExtractionLedger.find(extractionLocation, library.sourceKey, checksumStrategy);
+			LISTENERS.onCacheResult(library.libraryFilename, file != null);
+			if (file != null) {
+				ExtractionCache.used(file);
+			} else {
+				library.sourceChecksum = sourceChecksum(library.libraryFilename, true);
+				file = extractFile(library.libraryFilename, library.sourceChecksum, getPreferredFile(
+						checksumStrategy.getDirectoryName(library.sourceChecksum),
+						new File(library.libraryFilename).getName()));
+			}
+			library.file = file;
+		} catch (Throwable ignored) {
+		}
+	}
+
+	/**
+	 * Loads a library prepared by {@link #prepare(PreparedLibrary)}, falling
+	 * back to {@link #load(String, String)} if it was not prepared or fails
+	 * to load from the prepared location
+	 */
+	private File load(PreparedLibrary library) {
+		if (library.file != null) {
+			if (isLoaded(library.libraryName))
+				return LOADED_LIBRARIES.get(library.libraryName);
+
+			ReentrantLock lock = getLock(library.libraryName);
+			lock.lock();
+			try {
+				if (isLoaded(library.libraryName) || isLoadedDependency(library.libraryName, library.libraryFilename))
+					return LOADED_LIBRARIES.get(library.libraryName);
+				long startTime = System.nanoTime();
+				systemLoad(library.libraryFilename, library.file);
+				if (library.sourceChecksum != null)
+					record(library.sourceKey, library.file, library.sourceChecksum);
+				setLoaded(library.libraryName, library.file);
+				LISTENERS.onLoaded(library.libraryName, library.file, System.nanoTime() - startTime);
+				return library.file;
+			} catch (Throwable ignored) {
+			} finally {
+				lock.unlock();
+			}
+		}
+		return load(library.libraryName, library.libraryFilename);
+	}
+
+	/**
+	 * Returns the lock guarding extraction and loading of a library. A
+	 * {@link ReentrantLock} is used rather than a monitor so that virtual
+	 * threads waiting on it do not pin their carrier thread.
+	 */
+	private static ReentrantLock getLock(String libraryName) {
+		ReentrantLock lock = LOAD_LOCKS.get(libraryName);
+		if (lock != null)
+			return lock;
+		lock = new ReentrantLock();
+		ReentrantLock existingLock = LOAD_LOCKS.putIfAbsent(libraryName, lock);
+		return existingLock != null ? existingLock : lock;
+	}
+
+	private RuntimeException loadFailure(String libraryFilename, Throwable cause) {
+		return new RuntimeException("Couldn't load shared library '" + libraryFilename + "' for target: "
+				+ System.getProperty("os.name") + (OsInformation.is64Bit() ? ", 64-bit" : ", 32-bit"), cause);
 	}
 
+	/**
+	 * Opens the file for reading, decompressing it if only a compressed
+	 * payload is available, see {@link #resolvePayload(String)}
+	 */
 	private InputStream readFile(String path) {
+		Payload payload = resolvePayload(path);
+		InputStream input = payload.url != null ? openStream(payload.url) : readPayload(payload.path);
+		if (payload.codec == null)
+			return input;
+		try {
+			return payload.codec.decode(input);
+		} catch (IOException ex) {
+			closeQuietly(input);
+			throw new RuntimeException("Error decompressing '" + payload.path + "'", ex);
+		}
+	}
+
+	/**
+	 * Returns where the file is in the natives jar or classpath, looking it
+	 * up the first time it is requested. Indexed files are found without a
+	 * lookup. If the file is not present, a compressed payload (e.g.
+	 * libfoo64.so.xz) is looked for for each {@link PayloadCodec} whose
+	 * decoder is available.
+	 */
+	private Payload resolvePayload(String path) {
+		Payload payload = payloads.get(path);
+		if (payload != null)
+			return payload;
+		NativesIndex.Entry indexed = getIndex().get(path);
+		if (indexed != null) {
+			payload = new Payload(indexed.getResourcePath(), indexed.getUrl(), true);
+		} else {
+			SharedZipFile jar = acquireNativesJar();
+			try {
+				payload = findPayload(jar, path);
+				for (PayloadCodec codec : PayloadCodec.values()) {
+					if (payload.exists || !codec.isAvailable())
+						continue;
+					Payload compressedPayload = findPayload(jar, path + codec.getExtension());
+					if (compressedPayload.exists)
+						payload = compressedPayload;
+				}
+			} finally {
+				if (jar != null)
+					jar.release();
+			}
+		}
+		Payload existingPayload = payloads.putIfAbsent(path, payload);
+		return existingPayload != null ? existingPayload : payload;
+	}
+
+	private Payload findPayload(SharedZipFile jar, String path) {
+		if (nativesJar == null) {
+			URL url = getResource(path);
+			return new Payload(path, url, url != null);
+		}
+		return new Payload(path, null, jar != null && jar.getEntry(path) != null);
+	}
+
+	/**
+	 * Checks whether the file can be loaded without reading it
+	 */
+	private boolean isAvailable(String path) {
+		return isBundled(path) || new File(System.getProperty("java.library.path"), path).exists();
+	}
+
+	/**
+	 * Checks whether the file is in the natives index, natives jar or
+	 * classpath without reading it
+	 */
+	boolean isBundled(String path) {
+		return resolvePayload(path).exists;
+	}
+
+	/**
+	 * Returns the file extracted ahead of time from this loader's natives jar
+	 * or classpath, see {@link PreExtractedLibraries}
+	 * 
+	 * @return null if there is none or the source has changed since
+	 */
+	private File findPreExtracted(String path) {
+		PreExtractedLibraries preExtractedLibraries = PreExtractedLibraries.getInstance();
+		if (preExtractedLibraries == null)
+			return null;
+		return preExtractedLibraries.find(PreExtractedLibraries.getSource(nativesJar), path, getEntryCrc(path),
+				getIndex().get(path));
+	}
+
+	private InputStream readPayload(String path) {
 		if (nativesJar == null) {
 			InputStream input = SharedLibraryLoader.class.getResourceAsStream("/" + path);
 			if (input != null) {
@@ -175,34 +890,235 @@ public class SharedLibraryLoader {
 		}
 
 		// Read from JAR.
+		SharedZipFile file = null;
 		try {
-			ZipFile file = new ZipFile(nativesJar);
+			file = SharedZipFile.acquire(nativesJar);
 			ZipEntry entry = file.getEntry(path);
 			if (entry == null)
 				throw new RuntimeException("Couldn't find '" + path + "' in JAR: " + nativesJar);
 			return file.getInputStream(entry);
 		} catch (IOException ex) {
 			throw new RuntimeException("Error reading '" + path + "' in JAR: " + nativesJar, ex);
+		} finally {
+			if (file != null)
+				file.release();
+		}
+	}
+
+	private InputStream openStream(URL url) {
+		try {
+			return url.openStream();
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to read file for extraction: " + url, ex);
 		}
 	}
 
+	/**
+	 * Returns the {@link NativesIndex} of the natives jar or classpath, read
+	 * the first time it is requested
+	 */
+	private NativesIndex getIndex() {
+		if (nativesJar == null)
+			return NativesIndex.getClasspathIndex();
+		NativesIndex index = nativesIndex;
+		if (index == null) {
+			SharedZipFile file = acquireNativesJar();
+			if (file == null)
+				return new NativesIndex();
+			try {
+				index = NativesIndex.read(file);
+			} finally {
+				file.release();
+			}
+			nativesIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Holds the natives jar open so that it is only opened once while loading
+	 * 
+	 * @return null if no natives jar is in use or it cannot be opened
+	 */
+	private SharedZipFile acquireNativesJar() {
+		if (nativesJar == null)
+			return null;
+		try {
+			return SharedZipFile.acquire(nativesJar);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private URL getResource(String path) {
+		URL url = SharedLibraryLoader.class.getResource("/" + path);
+		if (url != null)
+			return url;
+		return SharedLibraryLoader.class.getResource(OsInformation.getOs().getFallbackLibraryLocation() + path);
+	}
+
+	private String sourceChecksum(String path) {
+		return sourceChecksum(path, false);
+	}
+
+	/**
+	 * Returns the checksum of the file. The checksum in the
+	 * {@link NativesIndex} is used when available, then for CRC-32 the CRC
+	 * stored in the zip central directory, otherwise the file is read in
+	 * full.
+	 * 
+	 * @param validateHeader
+	 *            True to check the file can be loaded by this JVM first, see
+	 *            {@link #validateHeader(String, byte[], int)}. If the file is
+	 *            read to checksum it, its header is taken from those bytes
+	 *            so that it is not read, or decompressed, again.
+	 */
+	private String sourceChecksum(String path, boolean validateHeader) {
+		long startTime = System.nanoTime();
+		ChecksumSource source = ChecksumSource.INDEX;
+		String checksum = getIndexedChecksum(path);
+		if (checksum == null) {
+			source = ChecksumSource.ZIP_METADATA;
+			checksum = getZipChecksum(path);
+		}
+		if (checksum != null) {
+			LISTENERS.onChecksum(path, source, checksumStrategy);
+			LISTENERS.onPhase(path, NativeLoadPhase.SOURCE_CHECKSUM, null, System.nanoTime() - startTime, 0L);
+			if (validateHeader)
+				validateHeader(path);
+			return checksum;
+		}
+		ChecksumStrategy.Hasher hasher = checksumStrategy.newHasher();
+		byte[] header = validateHeader ? new byte[ElfFile.HEADER_SIZE] : null;
+		long bytes = checksum(readFile(path), hasher, header);
+		LISTENERS.onChecksum(path, ChecksumSource.STREAMED, checksumStrategy);
+		LISTENERS.onPhase(path, NativeLoadPhase.SOURCE_CHECKSUM, null, System.nanoTime() - startTime, bytes);
+		if (validateHeader)
+			validateHeader(path, header, (int) Math.min(bytes, header.length));
+		return hasher.getValue();
+	}
+
+	/**
+	 * Returns the checksum of the file from the {@link NativesIndex}
+	 * 
+	 * @return null if the file is not indexed with the checksum strategy
+	 */
+	private String getIndexedChecksum(String path) {
+		NativesIndex.Entry indexed = getIndex().get(path);
+		return indexed != null ? indexed.getChecksum(checksumStrategy) : null;
+	}
+
+	/**
+	 * Returns the CRC-32 of the file from the zip central directory without
+	 * reading it
+	 * 
+	 * @return null if the strategy is not CRC-32 or the CRC is unknown
+	 */
+	private String getZipChecksum(String path) {
+		if (checksumStrategy != ChecksumStrategy.CRC32)
+			return null;
+		long crc = getZipCrc(path);
+		return crc != -1L ? Long.toString(crc, 16) : null;
+	}
+
+	/**
+	 * Returns the CRC of the file stored in the zip central directory
+	 * 
+	 * @return -1 if the file is not in a zip or its CRC is unknown
+	 */
+	private long getZipCrc(String path) {
+		// The central directory holds the CRC of the compressed payload.
+		if (resolvePayload(path).codec != null)
+			return -1L;
+		return getEntryCrc(path);
+	}
+
+	/**
+	 * Returns the CRC of the file's payload, which may be compressed, stored
+	 * in the zip central directory
+	 * 
+	 * @return -1 if the file is not in a zip
+	 */
+	private long getEntryCrc(String path) {
+		Payload payload = resolvePayload(path);
+		if (!payload.exists)
+			return -1L;
+		if (nativesJar != null) {
+			SharedZipFile file = acquireNativesJar();
+			if (file == null)
+				return -1L;
+			try {
+				ZipEntry entry = file.getEntry(payload.path);
+				return entry != null ? entry.getCrc() : -1L;
+			} finally {
+				file.release();
+			}
+		}
+
+		URL url = payload.url;
+		if (url == null)
+			return -1L;
+		try {
+			URLConnection connection = url.openConnection();
+			if (connection instanceof JarURLConnection) {
+				ZipEntry entry = ((JarURLConnection) connection).getJarEntry();
+				if (entry != null)
+					return entry.getCrc();
+			}
+		} catch (IOException ignored) {
+		}
+		return -1L;
+	}
+
+	/**
+	 * Returns the {@link ExtractionLedger} key identifying where the file is
+	 * read from. Only the jar (or classpath directory) is stat'ed, the file
+	 * itself is not read.
+	 * 
+	 * @return null if the source cannot be identified on disk
+	 */
+	private String getSourceKey(String path) {
+		Payload payload = resolvePayload(path);
+		if (nativesJar != null)
+			return ExtractionLedger.key(new File(nativesJar), payload.path);
+
+		URL url = payload.url;
+		if (url == null)
+			return null;
+		try {
+			if ("file".equals(url.getProtocol()))
+				return ExtractionLedger.key(new File(url.toURI()), payload.path);
+			URLConnection connection = url.openConnection();
+			if (connection instanceof JarURLConnection) {
+				JarURLConnection jarConnection = (JarURLConnection) connection;
+				URL jarUrl = jarConnection.getJarFileURL();
+				if ("file".equals(jarUrl.getProtocol()))
+					return ExtractionLedger.key(new File(jarUrl.toURI()), jarConnection.getEntryName());
+			}
+		} catch (IOException ignored) {
+		} catch (URISyntaxException ignored) {
+		} catch (IllegalArgumentException ignored) {
+		}
+		return null;
+	}
+
 	/**
 	 * Extracts the specified file to the specified directory if it does not
-	 * already exist or the CRC does not match. If file extraction fails and the
-	 * file exists at java.library.path, that file is returned.
+	 * already exist or the checksum does not match. If file extraction fails
+	 * and the file exists at java.library.path, that file is returned.
 	 * 
 	 * @param sourcePath
 	 *            The file to extract from the classpath or JAR.
 	 * @param dirName
 	 *            The name of the subdirectory where the file will be extracted.
-	 *            If null, the file's CRC will be used.
+	 *            If null, the file's checksum will be used.
 	 * @return The extracted file.
 	 */
 	public File extractFile(String sourcePath, String dirName) throws IOException {
 		try {
-			String sourceCrc = crc(readFile(sourcePath));
+			String sourceChecksum = sourceChecksum(sourcePath);
 			if (dirName == null)
-				dirName = sourceCrc;
+				dirName = checksumStrategy.getDirectoryName(sourceChecksum);
 
 			File extractedFile = getExtractedFile(dirName, new File(sourcePath).getName());
 			if (extractedFile == null) {
@@ -211,7 +1127,7 @@ public class SharedLibraryLoader {
 					throw new RuntimeException(
 							"Unable to find writable path to extract file. Is the user home directory writable?");
 			}
-			return extractFile(sourcePath, sourceCrc, extractedFile);
+			return extractFile(sourcePath, sourceChecksum, extractedFile);
 		} catch (RuntimeException ex) {
 			// Fallback to file at java.library.path location, eg for applets.
 			File file = new File(System.getProperty("java.library.path"), sourcePath);
@@ -223,8 +1139,8 @@ public class SharedLibraryLoader {
 
 	/**
 	 * Extracts the specified file into the temp directory if it does not
-	 * already exist or the CRC does not match. If file extraction fails and the
-	 * file exists at java.library.path, that file is returned.
+	 * already exist or the checksum does not match. If file extraction fails
+	 * and the file exists at java.library.path, that file is returned.
 	 * 
 	 * @param sourcePath
 	 *            The file to extract from the classpath or JAR.
@@ -232,46 +1148,69 @@ public class SharedLibraryLoader {
 	 *            The location where the extracted file will be written.
 	 */
 	public void extractFileTo(String sourcePath, File dir) throws IOException {
-		extractFile(sourcePath, crc(readFile(sourcePath)), new File(dir, new File(sourcePath).getName()));
+		// The directory belongs to the caller so no lock file is left in it
+		extractFile(sourcePath, sourceChecksum(sourcePath), new File(dir, new File(sourcePath).getName()), false);
+	}
+
+	/**
+	 * Extracts and verifies the file into a directory for
+	 * {@link PreExtractor}, using the same layout as extraction at runtime
+	 * 
+	 * @return The checksum of the file
+	 */
+	String preExtract(String sourcePath, File outputDir, PreExtractedLibraries libraries) throws IOException {
+		String sourceChecksum = sourceChecksum(sourcePath);
+		File file = new File(new File(outputDir, checksumStrategy.getDirectoryName(sourceChecksum)),
+				new File(sourcePath).getName());
+		// Nothing extracts into the output directory at runtime
+		extractFile(sourcePath, sourceChecksum, file, false);
+		libraries.add(PreExtractedLibraries.getSource(nativesJar), sourcePath, file, checksumStrategy, sourceChecksum,
+				getEntryCrc(sourcePath));
+		return sourceChecksum;
+	}
+
+	/**
+	 * Returns the file in the location libraries were last successfully
+	 * extracted to, without verifying it can be written
+	 */
+	private static File getPreferredFile(String dirName, String fileName) {
+		ExtractionLocation preferredLocation = extractionLocation;
+		File file = null;
+		if (preferredLocation != null)
+			file = preferredLocation.getFile(dirName, fileName);
+		if (file == null)
+			file = ExtractionLocation.CONFIGURED.getFile(dirName, fileName);
+		if (file == null)
+			file = ExtractionLocation.TEMP_DIRECTORY.getFile(dirName, fileName);
+		return file;
 	}
 
 	/**
 	 * Returns a path to a file that can be written. Tries multiple locations
-	 * and verifies writing succeeds.
+	 * and verifies writing succeeds. Once a location has been found it is
+	 * reused without verification.
 	 * 
 	 * @return null if a writable path could not be found.
 	 */
 	private File getExtractedFile(String dirName, String fileName) {
-		// Temp directory with username in path.
-		File idealFile = new File(System.getProperty("java.io.tmpdir") + "/natives-loader"
-				+ System.getProperty("user.name") + "/" + dirName, fileName);
-		if (canWrite(idealFile))
-			return idealFile;
+		ExtractionLocation preferredLocation = extractionLocation;
+		if (preferredLocation != null) {
+			File file = preferredLocation.getFile(dirName, fileName);
+			if (file != null)
+				return file;
+		}
 
-		// System provided temp directory.
-		try {
-			File file = File.createTempFile(dirName, null);
-			if (file.delete()) {
-				file = new File(file, fileName);
-				if (canWrite(file))
-					return file;
+		for (ExtractionLocation location : ExtractionLocation.values()) {
+			File file = location.getFile(dirName, fileName);
+			if (file != null && canWrite(file)) {
+				extractionLocation = location;
+				return file;
 			}
-		} catch (IOException ignored) {
 		}
 
-		// User home.
-		File file = new File(System.getProperty("user.home") + "/.natives-loader/" + dirName, fileName);
-		if (canWrite(file))
-			return file;
-
-		// Relative directory.
-		file = new File(".temp/" + dirName, fileName);
-		if (canWrite(file))
-			return file;
-
 		// We are running in the OS X sandbox.
 		if (System.getenv("APP_SANDBOX_CONTAINER_ID") != null)
-			return idealFile;
+			return ExtractionLocation.TEMP_DIRECTORY.getFile(dirName, fileName);
 
 		return null;
 	}
@@ -322,38 +1261,135 @@ public class SharedLibraryLoader {
 		return false;
 	}
 
-	private File extractFile(String sourcePath, String sourceCrc, File extractedFile) throws IOException {
-		String extractedCrc = null;
-		if (extractedFile.exists()) {
+	private File extractFile(String sourcePath, String sourceChecksum, File extractedFile) throws IOException {
+		return extractFile(sourcePath, sourceChecksum, extractedFile, true);
+	}
+
+	private File extractFile(String sourcePath, String sourceChecksum, File extractedFile, boolean lockFile)
+			throws IOException {
+		if (lockFile)
+			ExtractionCache.used(extractedFile);
+		if (isExtracted(sourcePath, sourceChecksum, extractedFile))
+			return extractedFile;
+
+		// Only one thread or process extracts, the others wait for it and
+		// then use the file it wrote.
+		long startTime = System.nanoTime();
+		ExtractionLock lock = ExtractionLock.acquire(extractedFile, lockFile);
+		LISTENERS.onPhase(sourcePath, NativeLoadPhase.LOCK_WAIT, extractedFile, System.nanoTime() - startTime, 0L);
+		try {
+			if (isExtracted(sourcePath, sourceChecksum, extractedFile))
+				return extractedFile;
+
+			// Write to a temporary file and move it into place so the
+			// extracted file is never seen partially written.
+			startTime = System.nanoTime();
+			File tmpFile = new File(extractedFile.getParentFile(),
+					extractedFile.getName() + "." + UUID.randomUUID().toString() + ".tmp");
 			try {
-				extractedCrc = crc(new FileInputStream(extractedFile));
-			} catch (FileNotFoundException ignored) {
+				String writtenChecksum = extractAndChecksum(sourcePath, tmpFile);
+				if (!writtenChecksum.equals(sourceChecksum)) {
+					throw new RuntimeException("Checksum mismatch extracting file: " + sourcePath + " (expected "
+							+ sourceChecksum + ", was " + writtenChecksum + ")\nTo: "
+							+ extractedFile.getAbsolutePath());
+				}
+				moveIntoPlace(tmpFile, extractedFile);
+			} finally {
+				tmpFile.delete();
 			}
+			LISTENERS.onPhase(sourcePath, NativeLoadPhase.EXTRACT, extractedFile, System.nanoTime() - startTime,
+					extractedFile.length());
+		} finally {
+			lock.release();
 		}
+		return extractedFile;
+	}
 
-		// If file doesn't exist or the CRC doesn't match, extract it to the
-		// temp dir.
-		if (extractedCrc == null || !extractedCrc.equals(sourceCrc)) {
-			try {
-				InputStream input = readFile(sourcePath);
-				extractedFile.getParentFile().mkdirs();
-				FileOutputStream output = new FileOutputStream(extractedFile);
-				byte[] buffer = new byte[4096];
-				while (true) {
-					int length = input.read(buffer);
-					if (length == -1)
-						break;
-					output.write(buffer, 0, length);
+	/**
+	 * Atomically replaces the extracted file with the temporary file where
+	 * the file system supports it
+	 */
+	private static void moveIntoPlace(File tmpFile, File extractedFile) throws IOException {
+		try {
+			Files.move(tmpFile.toPath(), extractedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(tmpFile.toPath(), extractedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Returns true if the file exists and its checksum matches the source
+	 */
+	private boolean isExtracted(String sourcePath, String sourceChecksum, File extractedFile) {
+		if (!extractedFile.exists())
+			return false;
+		// Files are moved into place complete, so a file in a directory named
+		// by its checksum can be trusted without reading it unless another
+		// user could have created it.
+		if (verificationMode == VerificationMode.EXISTENCE && checksumStrategy.getDirectoryName(sourceChecksum)
+				.equals(extractedFile.getParentFile().getName()) && ExtractionLedger.isTrusted(extractedFile))
+			return true;
+		long startTime = System.nanoTime();
+		String extractedChecksum = checksum(extractedFile);
+		LISTENERS.onChecksum(sourcePath, ChecksumSource.EXTRACTED_FILE, checksumStrategy);
+		LISTENERS.onPhase(sourcePath, NativeLoadPhase.EXISTING_CHECK, extractedFile, System.nanoTime() - startTime,
+				extractedFile.length());
+		return sourceChecksum.equals(extractedChecksum);
+	}
+
+	/**
+	 * Inflates the source file to disk, computing its checksum in the same
+	 * pass.
+	 * Data is moved through a pooled buffer and written with a
+	 * {@link FileChannel}. The file is synced to disk if the
+	 * {@link #FSYNC_PROPERTY} system property is true.
+	 * 
+	 * @return The checksum of the bytes written
+	 */
+	private String extractAndChecksum(String sourcePath, File extractedFile) {
+		InputStream input = null;
+		FileChannel output = null;
+		ByteBuffer buffer = BufferPool.obtain();
+		try {
+			input = readFile(sourcePath);
+			extractedFile.getParentFile().mkdirs();
+			output = new FileOutputStream(extractedFile).getChannel();
+			ChecksumStrategy.Hasher hasher = checksumStrategy.newHasher();
+			while (true) {
+				int length = input.read(buffer.array(), buffer.position(), buffer.remaining());
+				if (length == -1)
+					break;
+				hasher.update(buffer.array(), buffer.position(), length);
+				buffer.position(buffer.position() + length);
+				if (!buffer.hasRemaining()) {
+					writeFully(output, buffer);
 				}
-				input.close();
-				output.close();
-			} catch (IOException ex) {
-				throw new RuntimeException(
-						"Error extracting file: " + sourcePath + "\nTo: " + extractedFile.getAbsolutePath(), ex);
 			}
+			writeFully(output, buffer);
+			if (Boolean.getBoolean(FSYNC_PROPERTY))
+				output.force(true);
+			output.close();
+			output = null;
+			return hasher.getValue();
+		} catch (IOException ex) {
+			throw new RuntimeException(
+					"Error extracting file: " + sourcePath + "\nTo: " + extractedFile.getAbsolutePath(), ex);
+		} finally {
+			BufferPool.release(buffer);
+			closeQuietly(input);
+			closeQuietly(output);
 		}
+	}
 
-		return extractedFile;
+	/**
+	 * Writes the buffered bytes to the channel and clears the buffer
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
 	}
 
 	/**
@@ -361,55 +1397,304 @@ public class SharedLibraryLoader {
 	 * load from multiple locations. Throws runtime exception if all fail.
 	 */
 	private File loadFile(String sourcePath) {
-		String sourceCrc = crc(readFile(sourcePath));
+		// Extracted ahead of time, load without extracting or checksumming.
+		File preExtractedFile = findPreExtracted(sourcePath);
+		if (preExtractedFile != null) {
+			try {
+				systemLoad(sourcePath, preExtractedFile);
+				return preExtractedFile;
+			} catch (Throwable ignored) {
+			}
+		}
 
-		String fileName = new File(sourcePath).getName();
+		// Warm start, load the previously extracted file without reading it.
+		String sourceKey = lookup(sourcePath);
+		File ledgerFile = ExtractionLedger.find(extractionLocation, sourceKey, checksumStrategy);
+		LISTENERS.onCacheResult(sourcePath, ledgerFile != null);
+		if (ledgerFile != null) {
+			try {
+				ExtractionCache.used(ledgerFile);
+				systemLoad(sourcePath, ledgerFile);
+				return ledgerFile;
+			} catch (Throwable ignored) {
+			}
+		}
 
-		// Temp directory with username in path.
-		File file = new File(System.getProperty("java.io.tmpdir") + "/natives-loader" + System.getProperty("user.name")
-				+ "/" + sourceCrc, fileName);
-		Throwable ex = loadFile(sourcePath, sourceCrc, file);
-		if (ex == null)
-			return file;
+		String sourceChecksum = sourceChecksum(sourcePath, true);
+		File file = loadFile(sourcePath, sourceChecksum);
+		record(sourceKey, file, sourceChecksum);
+		return file;
+	}
+
+	/**
+	 * Records an extracted file in the ledger of the extraction root it was
+	 * extracted into
+	 */
+	private void record(String sourceKey, File file, String sourceChecksum) {
+		ExtractionLedger ledger = ExtractionLedger.forFile(file);
+		if (ledger != null)
+			ledger.record(sourceKey, file, checksumStrategy, sourceChecksum);
+	}
 
-		// System provided temp directory.
+	/**
+	 * Checks the ELF header of the source file matches the JVM before it is
+	 * extracted, so that a library for another architecture or ABI fails
+	 * immediately instead of being extracted and loaded in every location
+	 * 
+	 * @throws RuntimeException
+	 *             if the file cannot be loaded by this JVM
+	 */
+	private void validateHeader(String sourcePath) {
+		if (!OsInformation.isLinux())
+			return;
+		byte[] header = new byte[ElfFile.HEADER_SIZE];
+		int length = 0;
+		InputStream input = readFile(sourcePath);
 		try {
-			file = File.createTempFile(sourceCrc, null);
-			if (file.delete() && loadFile(sourcePath, sourceCrc, file) == null)
-				return file;
-		} catch (Throwable ignored) {
+			while (length < header.length) {
+				int read = input.read(header, length, header.length - length);
+				if (read == -1)
+					break;
+				length += read;
+			}
+		} catch (IOException ex) {
+			return;
+		} finally {
+			closeQuietly(input);
 		}
+		validateHeader(sourcePath, header, length);
+	}
 
-		// User home.
-		file = new File(System.getProperty("user.home") + "/.natives-loader/" + sourceCrc, fileName);
-		if (loadFile(sourcePath, sourceCrc, file) == null)
-			return file;
+	/**
+	 * Checks the first bytes of the source file, see
+	 * {@link #validateHeader(String)}
+	 */
+	private static void validateHeader(String sourcePath, byte[] header, int length) {
+		if (!OsInformation.isLinux())
+			return;
+		String incompatibility = ElfFile.getIncompatibility(header, length);
+		if (incompatibility != null)
+			throw new RuntimeException("Shared library '" + sourcePath + "' " + incompatibility);
+	}
 
-		// Relative directory.
-		file = new File(".temp/" + sourceCrc, fileName);
-		if (loadFile(sourcePath, sourceCrc, file) == null)
-			return file;
+	/**
+	 * Attempts to extract and load the source file from each extraction
+	 * location in turn
+	 */
+	private File loadFile(String sourcePath, String sourceChecksum) {
+		String fileName = new File(sourcePath).getName();
+		String dirName = checksumStrategy.getDirectoryName(sourceChecksum);
+
+		// Location that succeeded previously.
+		Throwable ex = null;
+		ExtractionLocation preferredLocation = extractionLocation;
+		if (preferredLocation != null) {
+			File file = preferredLocation.getFile(dirName, fileName);
+			if (file != null) {
+				ex = loadFile(sourcePath, sourceChecksum, file);
+				LISTENERS.onExtractionLocation(sourcePath, file.getParentFile(), false, ex);
+				if (ex == null)
+					return file;
+			}
+		}
+
+		for (ExtractionLocation location : ExtractionLocation.values()) {
+			if (location == preferredLocation)
+				continue;
+			File file = location.getFile(dirName, fileName);
+			if (file == null)
+				continue;
+			Throwable locationEx = loadFile(sourcePath, sourceChecksum, file);
+			LISTENERS.onExtractionLocation(sourcePath, file.getParentFile(), ex != null, locationEx);
+			if (locationEx == null) {
+				extractionLocation = location;
+				return file;
+			}
+			if (ex == null)
+				ex = locationEx;
+		}
 
 		// Fallback to java.library.path location, eg for applets.
-		file = new File(System.getProperty("java.library.path"), sourcePath);
+		File file = new File(System.getProperty("java.library.path"), sourcePath);
 		if (file.exists()) {
-			System.load(file.getAbsolutePath());
+			systemLoad(sourcePath, file);
+			LISTENERS.onExtractionLocation(sourcePath, file.getParentFile(), true, null);
 			return file;
 		}
 
 		throw new RuntimeException(ex);
 	}
 
-	/** @return null if the file was extracted and loaded. */
-	private Throwable loadFile(String sourcePath, String sourceCrc, File extractedFile) {
+	/**
+	 * Calls System.load on the file, reporting the time taken. Dependencies
+	 * of the library that are in the natives jar or on the classpath are
+	 * loaded first, see {@link #loadDependencies(String, ElfFile)}.
+	 */
+	private void systemLoad(String sourcePath, File file) {
+		ElfFile elfFile = readElfFile(file);
+		if (elfFile != null)
+			loadDependencies(sourcePath, elfFile);
+		long startTime = System.nanoTime();
+		System.load(file.getAbsolutePath());
+		LISTENERS.onPhase(sourcePath, NativeLoadPhase.LOAD, file, System.nanoTime() - startTime, file.length());
+		if (elfFile != null && elfFile.getSoname() != null)
+			LOADED_SONAMES.putIfAbsent(elfFile.getSoname(), file);
+	}
+
+	/**
+	 * @return null if this is not Linux or the file is not a readable ELF
+	 *         file
+	 */
+	private static ElfFile readElfFile(File file) {
+		if (!OsInformation.isLinux())
+			return null;
 		try {
-			System.load(extractFile(sourcePath, sourceCrc, extractedFile).getAbsolutePath());
+			return ElfFile.read(file);
+		} catch (IOException ex) {
 			return null;
+		}
+	}
+
+	/**
+	 * Loads the DT_NEEDED dependencies of an ELF library that are bundled
+	 * with it, in the order the linker would, with their extraction running
+	 * in parallel. A dependency only satisfies the linker if its SONAME is
+	 * the DT_NEEDED name, so one that does not fails the load here rather
+	 * than with a missing library error from System.load. Dependencies that
+	 * are not bundled are left for System.load to report.
+	 * 
+	 * @throws DependencyException
+	 *             if a bundled dependency has the wrong SONAME
+	 * @throws RuntimeException
+	 *             if a bundled dependency could not be loaded
+	 */
+	private void loadDependencies(String sourcePath, ElfFile elfFile) {
+		Set<String> loading = LOADING_DEPENDENCIES.get();
+		if (!loading.add(sourcePath))
+			return;
+		try {
+			List<PreparedLibrary> dependencies = new ArrayList<PreparedLibrary>();
+			for (String needed : elfFile.getNeeded()) {
+				if (!needed.equals(elfFile.getSoname()) && !loading.contains(needed)
+						&& !LOADED_SONAMES.containsKey(needed) && !isLoaded(needed) && isBundled(needed))
+					dependencies.add(new PreparedLibrary(needed, needed));
+			}
+			prepareAll(dependencies);
+			for (PreparedLibrary dependency : dependencies) {
+				if (dependency.file != null) {
+					ElfFile dependencyElfFile = readElfFile(dependency.file);
+					String soname = dependencyElfFile != null ? dependencyElfFile.getSoname() : null;
+					if (dependencyElfFile != null && !dependency.libraryFilename.equals(soname)) {
+						throw new DependencyException("Shared library '" + sourcePath + "' needs '"
+								+ dependency.libraryFilename + "' but the bundled '" + dependency.libraryFilename
+								+ "' has " + (soname != null ? "SONAME '" + soname + "'" : "no SONAME")
+								+ " so the dynamic linker would not use it. Link it with -Wl,-soname,"
+								+ dependency.libraryFilename);
+					}
+				}
+				load(dependency);
+			}
+		} finally {
+			loading.remove(sourcePath);
+		}
+	}
+
+	/**
+	 * Locates the source file, reporting the time taken
+	 * 
+	 * @return The {@link ExtractionLedger} key for the source file, see
+	 *         {@link #getSourceKey(String)}
+	 */
+	private String lookup(String sourcePath) {
+		long startTime = System.nanoTime();
+		String sourceKey = getSourceKey(sourcePath);
+		LISTENERS.onPhase(sourcePath, NativeLoadPhase.LOOKUP, null, System.nanoTime() - startTime, 0L);
+		return sourceKey;
+	}
+
+	/**
+	 * @return null if the file was extracted and loaded.
+	 * @throws DependencyException
+	 *             if the library cannot be loaded from any location
+	 */
+	private Throwable loadFile(String sourcePath, String sourceChecksum, File extractedFile) {
+		try {
+			systemLoad(sourcePath, extractFile(sourcePath, sourceChecksum, extractedFile));
+			return null;
+		} catch (DependencyException ex) {
+			throw ex;
 		} catch (Throwable ex) {
 			return ex;
 		}
 	}
 
+	/**
+	 * Registers a listener to receive events as libraries are loaded
+	 * 
+	 * @param listener
+	 *            The {@link NativeLoadListener} to add
+	 */
+	public static void addListener(NativeLoadListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener added by
+	 * {@link #addListener(NativeLoadListener)}
+	 * 
+	 * @param listener
+	 *            The {@link NativeLoadListener} to remove
+	 */
+	public static void removeListener(NativeLoadListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * Sets how previously extracted files are verified before being reused
+	 * 
+	 * @param mode
+	 *            The {@link VerificationMode} to use
+	 */
+	public static void setVerificationMode(VerificationMode mode) {
+		if (mode == null)
+			throw new IllegalArgumentException("mode cannot be null.");
+		verificationMode = mode;
+	}
+
+	public static VerificationMode getVerificationMode() {
+		return verificationMode;
+	}
+
+	/**
+	 * Registers a {@link NativeLoaderMXBean} with the platform MBean server
+	 * exposing loader statistics. Has no effect if already registered.
+	 */
+	public static void registerMBean() {
+		NativeLoaderStatistics.register();
+	}
+
+	/**
+	 * Returns a snapshot of the loaded libraries and the files they were
+	 * loaded from
+	 */
+	static Map<String, File> getLoadedLibraries() {
+		return new HashMap<String, File>(LOADED_LIBRARIES);
+	}
+
+	/**
+	 * Registers a library previously loaded as a dependency of another
+	 * library, which is registered under its filename, under its library
+	 * name too
+	 *
+	 * @return true if the library was loaded as a dependency
+	 */
+	private static boolean isLoadedDependency(String libraryName, String libraryFilename) {
+		if (!isLoaded(libraryFilename))
+			return false;
+		setLoaded(libraryName, LOADED_LIBRARIES.get(libraryFilename));
+		return true;
+	}
+
 	/**
 	 * Sets the library as loaded, for when application code wants to handle
 	 * libary loading itself.
@@ -418,6 +1703,82 @@ public class SharedLibraryLoader {
 		LOADED_LIBRARIES.put(libraryName, file);
 	}
 
+	/**
+	 * A bundled dependency that can never satisfy the dynamic linker, so
+	 * extracting the library to other locations is not attempted
+	 */
+	private static class DependencyException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		DependencyException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Where a file is in the natives jar or on the classpath
+	 */
+	private static class Payload {
+		/**
+		 * The entry or resource name, with the {@link PayloadCodec}
+		 * extension if compressed
+		 */
+		final String path;
+		/**
+		 * The classpath URL, null for the natives jar
+		 */
+		final URL url;
+		final boolean exists;
+		final PayloadCodec codec;
+
+		Payload(String path, URL url, boolean exists) {
+			this.path = path;
+			this.url = url;
+			this.exists = exists;
+			this.codec = PayloadCodec.forPath(path);
+		}
+	}
+
+	/**
+	 * A library being loaded by {@link SharedLibraryLoader#loadAll(Collection)}
+	 */
+	private static class PreparedLibrary {
+		final String libraryName;
+		final String libraryFilename;
+		String sourceKey;
+		String sourceChecksum;
+		File file;
+
+		PreparedLibrary(String libraryName, String libraryFilename) {
+			this.libraryName = libraryName;
+			this.libraryFilename = libraryFilename;
+		}
+	}
+
+	static class DaemonThreadFactory implements ThreadFactory {
+		private final String name;
+
+		DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	static void closeQuietly(Closeable closeable) {
+		if (closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+		}
+	}
+
 	static public boolean isLoaded(String libraryName) {
 		return LOADED_LIBRARIES.containsKey(libraryName);
 	}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A reference counted {@link ZipFile} shared between all users of the same
+ * natives jar. The central directory is parsed and indexed once, and the
+ * file is closed when the last reference is released.
+ */
+class SharedZipFile {
+	private static final Map<String, SharedZipFile> OPEN_FILES = new HashMap<String, SharedZipFile>();
+
+	private final String path;
+	private final ZipFile zipFile;
+	private final Map<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
+	private int references;
+
+	private SharedZipFile(String path) throws IOException {
+		this.path = path;
+		this.zipFile = new ZipFile(path);
+
+		Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+		while (zipEntries.hasMoreElements()) {
+			ZipEntry entry = zipEntries.nextElement();
+			entries.put(entry.getName(), entry);
+		}
+	}
+
+	/**
+	 * Returns the shared instance for the jar, opening it if necessary. Each
+	 * call must be matched by a call to {@link #release()}.
+	 */
+	static SharedZipFile acquire(String path) throws IOException {
+		synchronized (OPEN_FILES) {
+			SharedZipFile file = OPEN_FILES.get(path);
+			if (file == null) {
+				file = new SharedZipFile(path);
+				OPEN_FILES.put(path, file);
+			}
+			file.references++;
+			return file;
+		}
+	}
+
+	/**
+	 * Releases a reference, closing the jar if it was the last one
+	 */
+	void release() {
+		synchronized (OPEN_FILES) {
+			references--;
+			if (references > 0)
+				return;
+			OPEN_FILES.remove(path);
+		}
+		SharedLibraryLoader.closeQuietly(zipFile);
+	}
+
+	/**
+	 * @return null if the jar has no such entry
+	 */
+	ZipEntry getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Opens an entry for reading. The returned stream holds its own reference
+	 * to the jar until it is closed.
+	 */
+	InputStream getInputStream(ZipEntry entry) throws IOException {
+		synchronized (OPEN_FILES) {
+			references++;
+		}
+		try {
+			return new FilterInputStream(zipFile.getInputStream(entry)) {
+				private boolean closed;
+
+				@Override
+				public void close() throws IOException {
+					if (closed)
+						return;
+					closed = true;
+					try {
+						super.close();
+					} finally {
+						release();
+					}
+				}
+			};
+		} catch (IOException ex) {
+			release();
+			throw ex;
+		}
+	}
+}
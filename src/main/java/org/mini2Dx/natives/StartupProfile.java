@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the libraries an application loads, in order and with the time
+ * each took, to the file set by {@link #PROFILE_PROPERTY}. On the next start
+ * the recorded libraries are preloaded on a background thread with
+ * {@link SharedLibraryLoader#loadAll(java.util.Collection)} before the
+ * application asks for them, using the {@link ChecksumStrategy} the
+ * application loaded them with. Libraries loaded by the preloader are only
+ * recorded again if the application requests them.
+ */
+class StartupProfile extends NativeLoadAdapter {
+	/**
+	 * System property for the profile file. Recording and preloading are
+	 * disabled when it is not set.
+	 */
+	static final String PROFILE_PROPERTY = "mini2Dx.natives.profile";
+	private static final String HEADER = "# natives-loader startup profile: "
+			+ "name, filename, natives jar, checksum strategy, microseconds";
+	private static final String CLASSPATH = "-";
+
+	private final File file;
+	private final List<Entry> previousEntries = new ArrayList<Entry>();
+	private final ConcurrentMap<String, Entry> recordedEntries = new ConcurrentHashMap<String, Entry>();
+	private final List<Entry> recordOrder = new ArrayList<Entry>();
+	private final ConcurrentMap<String, Long> durations = new ConcurrentHashMap<String, Long>();
+	private volatile Thread preloadThread;
+
+	StartupProfile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads the previous profile and starts recording if
+	 * {@link #PROFILE_PROPERTY} is set
+	 * 
+	 * @return null if profiling is disabled
+	 */
+	static StartupProfile install() {
+		String path = System.getProperty(PROFILE_PROPERTY);
+		if (path == null)
+			return null;
+		StartupProfile profile = new StartupProfile(new File(path));
+		profile.read();
+		SharedLibraryLoader.addListener(profile);
+		return profile;
+	}
+
+	/**
+	 * Preloads the libraries of the previous profile on a daemon thread.
+	 * Libraries recorded with a checksum strategy that is not built in or not
+	 * available on this JVM are left for the application to load.
+	 */
+	void preload() {
+		if (previousEntries.isEmpty())
+			return;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Map<String, Map<String, String>> libraries = new LinkedHashMap<String, Map<String, String>>();
+				for (Entry entry : previousEntries) {
+					ChecksumStrategy checksumStrategy = ChecksumStrategy.forName(entry.checksumStrategy);
+					if (checksumStrategy == null || !checksumStrategy.isAvailable())
+						continue;
+					String key = entry.nativesJar + "\t" + checksumStrategy.getName();
+					Map<String, String> jarLibraries = libraries.get(key);
+					if (jarLibraries == null) {
+						jarLibraries = new LinkedHashMap<String, String>();
+						libraries.put(key, jarLibraries);
+					}
+					jarLibraries.put(entry.libraryName, entry.libraryFilename);
+				}
+				for (Map.Entry<String, Map<String, String>> jarLibraries : libraries.entrySet()) {
+					String[] key = jarLibraries.getKey().split("\t");
+					String nativesJar = key[0];
+					try {
+						SharedLibraryLoader loader = nativesJar.equals(CLASSPATH) ? new SharedLibraryLoader()
+								: new SharedLibraryLoader(nativesJar);
+						loader.setChecksumStrategy(ChecksumStrategy.forName(key[1]));
+						loader.loadAll(jarLibraries.getValue());
+					} catch (Throwable ignored) {
+						// Reported again when the application loads them
+					}
+				}
+			}
+		}, "natives-loader-preload");
+		thread.setDaemon(true);
+		preloadThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Records that the application requested a library. Requests made by
+	 * the preloader are ignored.
+	 * 
+	 * @param nativesJar
+	 *            The natives jar the library is loaded from or null for the
+	 *            classpath
+	 * @param checksumStrategy
+	 *            The checksum strategy of the loader
+	 * @param libraryFilename
+	 *            The filename of the library or null if it is already loaded,
+	 *            in which case the filename from the previous profile is used
+	 */
+	void requested(String nativesJar, ChecksumStrategy checksumStrategy, String libraryName,
+			String libraryFilename) {
+		if (recordedEntries.containsKey(libraryName) || Thread.currentThread() == preloadThread)
+			return;
+		synchronized (recordOrder) {
+			if (recordedEntries.containsKey(libraryName))
+				return;
+			if (libraryFilename == null) {
+				Entry previousEntry = getPreviousEntry(libraryName);
+				if (previousEntry == null)
+					return;
+				libraryFilename = previousEntry.libraryFilename;
+			}
+			Entry entry = new Entry(libraryName, libraryFilename, nativesJar != null ? nativesJar : CLASSPATH,
+					checksumStrategy.getName());
+			recordedEntries.put(libraryName, entry);
+			recordOrder.add(entry);
+			write();
+		}
+	}
+
+	@Override
+	public void onLoaded(String libraryName, File file, long durationNanos) {
+		durations.put(libraryName, durationNanos);
+		if (!recordedEntries.containsKey(libraryName))
+			return;
+		synchronized (recordOrder) {
+			write();
+		}
+	}
+
+	private void read() {
+		if (!file.isFile())
+			return;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (line.startsWith("#") || fields.length != 5)
+					continue;
+				Entry entry = new Entry(fields[0], fields[1], fields[2], fields[3]);
+				entry.durationMicros = Long.parseLong(fields[4]);
+				previousEntries.add(entry);
+			}
+		} catch (IOException ignored) {
+		} catch (NumberFormatException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Replaces the profile with the libraries recorded so far. Failures are
+	 * ignored since the profile is only an optimisation.
+	 */
+	private void write() {
+		File tmpFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + "." + UUID.randomUUID());
+		Writer writer = null;
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+			writer.write(HEADER + "\n");
+			for (Entry entry : recordOrder) {
+				writer.write(entry.libraryName + "\t" + entry.libraryFilename + "\t" + entry.nativesJar + "\t"
+						+ entry.checksumStrategy + "\t" + getDurationMicros(entry) + "\n");
+			}
+			writer.close();
+			writer = null;
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ignored) {
+		} finally {
+			SharedLibraryLoader.closeQuietly(writer);
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * @return The time taken to load the library in this run or, if it was
+	 *         preloaded or is still loading, in the previous run
+	 */
+	private long getDurationMicros(Entry entry) {
+		Long durationNanos = durations.get(entry.libraryName);
+		if (durationNanos != null)
+			return TimeUnit.NANOSECONDS.toMicros(durationNanos.longValue());
+		Entry previousEntry = getPreviousEntry(entry.libraryName);
+		return previousEntry != null ? previousEntry.durationMicros : 0L;
+	}
+
+	private Entry getPreviousEntry(String libraryName) {
+		for (Entry previousEntry : previousEntries) {
+			if (previousEntry.libraryName.equals(libraryName))
+				return previousEntry;
+		}
+		return null;
+	}
+
+	private static class Entry {
+		final String libraryName;
+		final String libraryFilename;
+		final String nativesJar;
+		final String checksumStrategy;
+		long durationMicros;
+
+		Entry(String libraryName, String libraryFilename, String nativesJar, String checksumStrategy) {
+			this.libraryName = libraryName;
+			this.libraryFilename = libraryFilename;
+			this.nativesJar = nativesJar;
+			this.checksumStrategy = checksumStrategy;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+/**
+ * How {@link SharedLibraryLoader} verifies a previously extracted file
+ * before reusing it
+ */
+public enum VerificationMode {
+	/**
+	 * The extracted file is read in full and its checksum compared to the
+	 * source. This is the default.
+	 */
+	CHECKSUM,
+	/**
+	 * The extracted file is trusted if it exists in a directory named by the
+	 * source checksum. Files are written to a temporary file and moved into
+	 * place, so an existing file is always complete. Falls back to
+	 * {@link #CHECKSUM} when extracting to a directory with another name, or
+	 * when the file or its directory is outside the extraction roots or not
+	 * owned by the current user.
+	 */
+	EXISTENCE;
+
+	/**
+	 * Returns the mode named by a system property value, ignoring case
+	 * 
+	 * @return {@link #CHECKSUM} if the value is null or unrecognised
+	 */
+	static VerificationMode fromProperty(String value) {
+		for (VerificationMode mode : values()) {
+			if (mode.name().equalsIgnoreCase(value))
+				return mode;
+		}
+		return CHECKSUM;
+	}
+}
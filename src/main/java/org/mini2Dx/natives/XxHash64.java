@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+/**
+ * Streaming implementation of the xxHash64 algorithm with a seed of 0
+ */
+class XxHash64 implements ChecksumStrategy.Hasher {
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private long v1 = PRIME1 + PRIME2;
+	private long v2 = PRIME2;
+	private long v3 = 0L;
+	private long v4 = -PRIME1;
+	private final byte[] pending = new byte[32];
+	private int pendingLength;
+	private long totalLength;
+
+	@Override
+	public void update(byte[] bytes, int offset, int length) {
+		totalLength += length;
+		if (pendingLength + length < 32) {
+			System.arraycopy(bytes, offset, pending, pendingLength, length);
+			pendingLength += length;
+			return;
+		}
+		if (pendingLength > 0) {
+			int fill = 32 - pendingLength;
+			System.arraycopy(bytes, offset, pending, pendingLength, fill);
+			processStripe(pending, 0);
+			offset += fill;
+			length -= fill;
+			pendingLength = 0;
+		}
+		while (length >= 32) {
+			processStripe(bytes, offset);
+			offset += 32;
+			length -= 32;
+		}
+		System.arraycopy(bytes, offset, pending, 0, length);
+		pendingLength = length;
+	}
+
+	@Override
+	public String getValue() {
+		long hash;
+		if (totalLength >= 32) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else {
+			hash = PRIME5;
+		}
+		hash += totalLength;
+
+		int index = 0;
+		while (index + 8 <= pendingLength) {
+			hash ^= round(0L, readLong(pending, index));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+			index += 8;
+		}
+		if (index + 4 <= pendingLength) {
+			hash ^= (readInt(pending, index) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			index += 4;
+		}
+		while (index < pendingLength) {
+			hash ^= (pending[index] & 0xFFL) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+			index++;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return Long.toHexString(hash);
+	}
+
+	private void processStripe(byte[] bytes, int offset) {
+		v1 = round(v1, readLong(bytes, offset));
+		v2 = round(v2, readLong(bytes, offset + 8));
+		v3 = round(v3, readLong(bytes, offset + 16));
+		v4 = round(v4, readLong(bytes, offset + 24));
+	}
+
+	private static long round(long accumulator, long input) {
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+
+	private static long mergeRound(long accumulator, long value) {
+		accumulator ^= round(0L, value);
+		return accumulator * PRIME1 + PRIME4;
+	}
+
+	private static long readLong(byte[] bytes, int offset) {
+		return (readInt(bytes, offset) & 0xFFFFFFFFL) | ((long) readInt(bytes, offset + 4) << 32);
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8) | ((bytes[offset + 2] & 0xFF) << 16)
+				| ((bytes[offset + 3] & 0xFF) << 24);
+	}
+}
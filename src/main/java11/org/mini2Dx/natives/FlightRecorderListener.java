@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Converts {@link NativeLoadListener} events into Java Flight Recorder events
+ */
+class FlightRecorderListener extends NativeLoadAdapter {
+	private static final Checksum NO_CHECKSUM = new Checksum("none", null);
+
+	/**
+	 * The checksum reported by onChecksum, by library filename, until its
+	 * phase is reported
+	 */
+	private final ConcurrentMap<String, Checksum> pendingChecksums = new ConcurrentHashMap<>();
+	/**
+	 * How each library's checksum was established, by library filename,
+	 * until it is loaded
+	 */
+	private final ConcurrentMap<String, Checksum> sourceChecksums = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Checksum> fileChecksums = new ConcurrentHashMap<>();
+	/**
+	 * The checksum of the library last loaded on this thread, the LOAD phase
+	 * is reported on the same thread just before onLoaded
+	 */
+	private final ThreadLocal<Checksum> loadedChecksum = new ThreadLocal<>();
+
+	@Override
+	public void onChecksum(String libraryFilename, ChecksumSource source, ChecksumStrategy checksumStrategy) {
+		pendingChecksums.put(libraryFilename,
+				new Checksum(source.name().toLowerCase(Locale.ROOT).replace('_', '-'), checksumStrategy.getName()));
+	}
+
+	@Override
+	public void onPhase(String libraryFilename, NativeLoadPhase phase, File file, long durationNanos, long bytes) {
+		switch (phase) {
+		case SOURCE_CHECKSUM:
+		case EXISTING_CHECK: {
+			Checksum checksum = getOrDefault(pendingChecksums.remove(libraryFilename));
+			(phase == NativeLoadPhase.SOURCE_CHECKSUM ? sourceChecksums : fileChecksums).put(libraryFilename,
+					checksum);
+			NativeLibraryChecksumEvent event = new NativeLibraryChecksumEvent();
+			if (!event.shouldCommit())
+				return;
+			event.libraryName = libraryFilename;
+			event.fileSize = bytes;
+			event.checksumMode = checksum.mode;
+			event.checksumAlgorithm = checksum.algorithm;
+			event.targetPath = file != null ? file.getAbsolutePath() : null;
+			event.elapsed = durationNanos;
+			event.outcome = "completed";
+			event.commit();
+			break;
+		}
+		case EXTRACT: {
+			Checksum checksum = getOrDefault(sourceChecksums.get(libraryFilename));
+			fileChecksums.put(libraryFilename, checksum);
+			NativeLibraryExtractEvent event = new NativeLibraryExtractEvent();
+			if (!event.shouldCommit())
+				return;
+			event.libraryName = libraryFilename;
+			event.fileSize = bytes;
+			event.checksumMode = checksum.mode;
+			event.checksumAlgorithm = checksum.algorithm;
+			event.targetPath = file.getAbsolutePath();
+			event.elapsed = durationNanos;
+			event.outcome = "extracted";
+			event.commit();
+			break;
+		}
+		case LOAD: {
+			Checksum checksum = fileChecksums.remove(libraryFilename);
+			sourceChecksums.remove(libraryFilename);
+			loadedChecksum.set(getOrDefault(checksum));
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void onLoaded(String libraryName, File file, long durationNanos) {
+		commitLoad(libraryName, file, durationNanos, "loaded");
+	}
+
+	@Override
+	public void onFailed(String libraryName, Throwable cause, long durationNanos) {
+		commitLoad(libraryName, null, durationNanos, "failed: " + cause);
+	}
+
+	private void commitLoad(String libraryName, File file, long durationNanos, String outcome) {
+		Checksum checksum = getOrDefault(loadedChecksum.get());
+		loadedChecksum.remove();
+		NativeLibraryLoadEvent event = new NativeLibraryLoadEvent();
+		if (!event.shouldCommit())
+			return;
+		event.libraryName = libraryName;
+		event.fileSize = file != null ? file.length() : 0L;
+		event.checksumMode = checksum.mode;
+		event.checksumAlgorithm = checksum.algorithm;
+		event.targetPath = file != null ? file.getAbsolutePath() : null;
+		event.elapsed = durationNanos;
+		event.outcome = outcome;
+		event.commit();
+	}
+
+	private static Checksum getOrDefault(Checksum checksum) {
+		return checksum != null ? checksum : NO_CHECKSUM;
+	}
+
+	/**
+	 * Where a checksum came from and the algorithm that computed it
+	 */
+	private static class Checksum {
+		final String mode;
+		final String algorithm;
+
+		Checksum(String mode, String algorithm) {
+			this.mode = mode;
+			this.algorithm = algorithm;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2016 See MINI2DX_AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.mini2Dx.natives;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event for extracting a native library to disk
+ */
+@Name("org.mini2Dx.natives.NativeLibraryExtract")
+@Label("Native Library Extract")
+@Description("A native library was extracted to disk")
+@Category({ "mini2Dx", "Native Libraries" })
+class NativeLibraryExtractEvent extends Event {
+	@Label("Library Name")
+	String libraryName;
+
+	@Label("File Size")
+	@DataAmount
+	long fileSize;
+
+	@Label("Checksum Mode")
+	String checksumMode;
+
+	@Label("Checksum Algorithm")
+	String checksumAlgorithm;
+
+	@Label("Target Path")
+	String targetPath;
+
+	@Label("Elapsed")
+	@Timespan(Timespan.NANOSECONDS)
+	long elapsed;
+
+	@Label("Outcome")
+	String outcome;
+}